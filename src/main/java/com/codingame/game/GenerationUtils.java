@@ -6,6 +6,8 @@ import com.codingame.game.generator.GridGenerator;
 import com.codingame.game.generator.GridDefinition;
 import com.codingame.game.tree.DungeonTree;
 
+import java.util.Random;
+
 public final class GenerationUtils {
     static final int MAX_RETRIES = 20;
 
@@ -13,6 +15,11 @@ public final class GenerationUtils {
         return GridGenerator.generate(dirName, x, y, MAX_RETRIES);
     }
 
+    // one of the trees kept for the bucket (see MapElitesSettings.elitesPerCell), so a bucket serves varied levels
+    public static GridDefinition generateFromFile(String dirName, int x, int y, Random random) {
+        return GridGenerator.generate(dirName, x, y, MAX_RETRIES, random);
+    }
+
     public static GridDefinition runAndGenerate(int numGenerations) {
          MapElitesArchive res = MapElites.run(numGenerations);
          DungeonTree tree = res.getRandomGoodTree();
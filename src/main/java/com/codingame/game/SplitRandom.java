@@ -0,0 +1,80 @@
+package com.codingame.game;
+
+import java.util.Random;
+
+/**
+ * Unsynchronized SplitMix64 generator (the algorithm behind {@link java.util.SplittableRandom})
+ * exposed as a {@link Random}, so it can be passed to every API that takes one.
+ * One instance must only be used by one thread at a time.
+ */
+public class SplitRandom extends Random {
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    public SplitRandom(long seed) {
+        super(seed); // calls setSeed
+    }
+
+    /**
+     * Independent generator for one stream (e.g. one generation) of a seeded run.
+     * It depends only on the seed and stream index, never on which thread asks for it.
+     */
+    public static SplitRandom stream(long seed, long streamIndex) {
+        return new SplitRandom(mix64(seed ^ mix64((streamIndex + 1) * GOLDEN_GAMMA)));
+    }
+
+    // the whole generator state: new SplitRandom(getState()) draws the same values from here on,
+    // e.g. in another process
+    public long getState() {
+        return state;
+    }
+
+    public SplitRandom split() {
+        return new SplitRandom(mix64(nextLong()));
+    }
+
+    // SplitMix64 finalizer, also usable as a cheap 64-bit hash mixer
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        state = seed;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+}
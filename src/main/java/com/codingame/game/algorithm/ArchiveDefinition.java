@@ -0,0 +1,25 @@
+package com.codingame.game.algorithm;
+
+import lombok.Builder;
+import lombok.Getter;
+
+// descriptors and fitness configuration of one archive in a multi-archive run (see MapElitesSettings.archives)
+@Getter
+@Builder
+public class ArchiveDefinition {
+    // the 10 x 10 difficulty / reward grid by default
+    @Builder.Default
+    private final Tessellation tessellation = new GridTessellation(
+            Fitness::averageDifficulty, Fitness::averageReward, 0.1f, 0.7f, 0.2f, 0.8f, 10);
+
+    // Fitness.fitness(tree, quality, control)
+    @Builder.Default
+    private final boolean quality = true;
+
+    @Builder.Default
+    private final boolean control = true;
+
+    FitnessFunction fitnessFunction() {
+        return (context, toBeat) -> Fitness.fitness(context, quality, control, toBeat);
+    }
+}
@@ -0,0 +1,13 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.PersistentDungeonTree;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+class ArchiveRecord {
+    PersistentDungeonTree tree;
+    float fitness;
+    float[] descriptor; // raw values, so the record can be re-binned without evaluating the tree again
+}
@@ -0,0 +1,29 @@
+package com.codingame.game.algorithm;
+
+/**
+ * Dense, append-only list of archive cells. Cells never leave an archive, so a cell is added once
+ * and a random member is one array lookup. Appends are rare (at most once per cell) and take a lock;
+ * reads are lock-free: the volatile count is written after the slot it publishes.
+ */
+class CellIndex {
+    private final int[] cells;
+    private volatile int count;
+
+    CellIndex(int capacity) {
+        cells = new int[capacity];
+    }
+
+    synchronized void add(int cell) {
+        cells[count] = cell;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // cell stored at position slot, slot < size()
+    int get(int slot) {
+        return cells[slot];
+    }
+}
@@ -0,0 +1,319 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.DungeonTreeSerializer;
+import com.codingame.game.tree.PersistentDungeonTree;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash-safe progress of a run, kept in one directory:
+ * <ul>
+ *     <li>{@code snapshot.json}: every elite of every archive at some generation, with the other trees of each
+ *     cell's heap (elitesPerCell > 1) and the overflow pool, replaced atomically;</li>
+ *     <li>{@code improvements.jsonl}: every tree kept since that snapshot, as elite or heap variant, one JSON object
+ *     per line.</li>
+ * </ul>
+ * Replaying the log pushes displaced elites into the overflow pool as the run did; trees the run put in the pool
+ * because they lost to an elite are not logged, so those added since the last snapshot are lost.
+ * All disk work happens on one background thread, in the order it was requested, so the main loop only enqueues.
+ * Elite trees are never modified once they are in the archive, so they can be serialized later.
+ * The random state needs no saving: generation g always draws from {@code SplitRandom.stream(seed, g)}.
+ */
+class Checkpoint implements AutoCloseable {
+    private static final String SNAPSHOT = "snapshot.json";
+    private static final String IMPROVEMENTS = "improvements.jsonl";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final File dir;
+    private final long seed;
+    // the run's archives, copied when it refines one; snapshots capture those current when they are requested
+    private volatile MapElitesArchive[] archives;
+    private final int interval;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "map-elites-checkpoint");
+        thread.setDaemon(true); // a crashed run must not wait for its checkpoint
+        return thread;
+    });
+    // only used on the writer thread
+    private BufferedWriter improvements;
+    // first generation count that triggers the next snapshot; read without the lock by every worker
+    private volatile long nextSnapshot;
+    private volatile RuntimeException failure = null;
+
+    // seed and first generation of a run restored from a checkpoint
+    static final class Restored {
+        final long seed;
+        final int generation;
+
+        Restored(long seed, int generation) {
+            this.seed = seed;
+            this.generation = generation;
+        }
+    }
+
+    // the first snapshot is taken at firstGeneration
+    Checkpoint(File dir, long seed, List<MapElitesArchive> archives, int interval, int firstGeneration) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Cannot create directory: " + dir);
+        }
+        this.dir = dir;
+        this.seed = seed;
+        this.archives = archives.toArray(new MapElitesArchive[0]);
+        this.interval = interval;
+        this.nextSnapshot = firstGeneration;
+        submit(() -> improvements = new BufferedWriter(new FileWriter(new File(dir, IMPROVEMENTS), true)));
+    }
+
+    private interface DiskTask {
+        void run() throws IOException;
+    }
+
+    private void submit(DiskTask task) {
+        if (failure != null) {
+            throw failure;
+        }
+        writer.execute(() -> {
+            if (failure != null) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (IOException | RuntimeException e) {
+                failure = new RuntimeException("Failed to write checkpoint in " + dir.getAbsolutePath(), e);
+            }
+        });
+    }
+
+    // called after a tree was kept as elite or heap variant by generation; the tree is immutable, so it is converted on the writer thread
+    void onInsertion(int generation, int archive, int cell, PersistentDungeonTree tree, float fitness) {
+        submit(() -> {
+            ObjectNode line = MAPPER.createObjectNode();
+            line.put("generation", generation);
+            line.put("archive", archive);
+            line.put("cell", cell);
+            line.set("tree", DungeonTreeSerializer.toJsonNode(tree.toDungeonTree(), fitness));
+            improvements.write(MAPPER.writeValueAsString(line));
+            improvements.newLine();
+            improvements.flush();
+        });
+    }
+
+    // called after generations have been completed; cheap unless a snapshot is due
+    void onGeneration(int generations) {
+        if (generations >= nextSnapshot) {
+            synchronized (this) {
+                if (generations < nextSnapshot) {
+                    return; // another worker requested this snapshot
+                }
+                nextSnapshot = ((long) generations / interval + 1) * interval;
+            }
+            MapElitesArchive[] targets = archives;
+            submit(() -> writeSnapshot(targets, generations));
+        }
+    }
+
+    // the run continues on a refined archive, whose cells are numbered differently: the snapshot is taken at once,
+    // and it drops the log entries of the coarser archive
+    void onArchiveReplaced(int index, MapElitesArchive archive, int generations) {
+        MapElitesArchive[] targets = archives.clone();
+        targets[index] = archive;
+        this.archives = targets;
+        submit(() -> writeSnapshot(targets, generations));
+    }
+
+    // runs on the writer thread after every insertion requested before it, so the snapshot holds them all;
+    // insertions that race with it are also logged afterwards, and replaying them is harmless
+    private void writeSnapshot(MapElitesArchive[] targets, int generations) throws IOException {
+        ObjectNode snapshot = MAPPER.createObjectNode();
+        snapshot.put("seed", seed);
+        snapshot.put("generation", generations);
+        ArrayNode archiveNodes = snapshot.putArray("archives");
+        for (MapElitesArchive archive : targets) {
+            ObjectNode archiveNode = archiveNodes.addObject();
+            archiveNode.put("cells", archive.cellCount());
+            archiveNode.put("elitesPerCell", archive.getElitesPerCell());
+            ArrayNode elites = archiveNode.putArray("elites");
+            ArrayNode variants = archiveNode.putArray("variants");
+            // in the order the cells were filled, so uniform parent selection sees the same index after a resume
+            int filled = archive.occupiedCount();
+            for (int slot = 0; slot < filled; slot++) {
+                int cell = archive.occupiedCell(slot);
+                addRecord(elites, cell, archive.record(cell));
+                for (ArchiveRecord variant : archive.variantRecords(cell)) {
+                    addRecord(variants, cell, variant);
+                }
+            }
+            ArrayNode overflow = archiveNode.putArray("overflow");
+            for (ArchiveRecord rec : archive.overflowRecords()) {
+                overflow.add(DungeonTreeSerializer.toJsonNode(rec.getTree().toDungeonTree(), rec.getFitness()));
+            }
+        }
+
+        File tmp = new File(dir, SNAPSHOT + ".tmp");
+        MAPPER.writeValue(tmp, snapshot);
+        try {
+            Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // everything logged so far is in the snapshot; a crash before this point only leaves entries to replay twice
+        improvements.close();
+        improvements = new BufferedWriter(new FileWriter(new File(dir, IMPROVEMENTS), false));
+    }
+
+    private static void addRecord(ArrayNode records, int cell, ArchiveRecord rec) {
+        ObjectNode node = records.addObject();
+        node.put("cell", cell);
+        node.set("tree", DungeonTreeSerializer.toJsonNode(rec.getTree().toDungeonTree(), rec.getFitness()));
+    }
+
+    // takes a last snapshot and waits until everything is on disk
+    void finish(int generations) {
+        nextSnapshot = generations;
+        onGeneration(generations);
+        close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (writer.isShutdown()) {
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                if (improvements != null) {
+                    improvements.close();
+                }
+            } catch (IOException e) {
+                failure = new RuntimeException("Failed to close checkpoint log in " + dir.getAbsolutePath(), e);
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // cell count of each archive in the snapshot of dir, in archive order; empty if there is none
+    static int[] snapshotCells(File dir) {
+        File snapshotFile = new File(dir, SNAPSHOT);
+        if (!snapshotFile.exists()) {
+            return new int[0];
+        }
+        try {
+            JsonNode archiveNodes = MAPPER.readTree(snapshotFile).get("archives");
+            int[] cells = new int[archiveNodes.size()];
+            for (int a = 0; a < cells.length; a++) {
+                cells[a] = archiveNodes.get(a).get("cells").asInt();
+            }
+            return cells;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read checkpoint in " + dir.getAbsolutePath(), e);
+        }
+    }
+
+    // refills empty archives from the checkpoint in dir; they must be configured as in the checkpointed run
+    static Restored restore(File dir, List<MapElitesArchive> archives) {
+        File snapshotFile = new File(dir, SNAPSHOT);
+        if (!snapshotFile.exists()) {
+            throw new IllegalStateException("No checkpoint in " + dir.getAbsolutePath());
+        }
+        try {
+            JsonNode snapshot = MAPPER.readTree(snapshotFile);
+            JsonNode archiveNodes = snapshot.get("archives");
+            if (archiveNodes.size() != archives.size()) {
+                throw new IllegalStateException("Checkpoint has " + archiveNodes.size() + " archives, run has "
+                        + archives.size());
+            }
+            for (int a = 0; a < archives.size(); a++) {
+                int cells = archiveNodes.get(a).get("cells").asInt();
+                if (cells != archives.get(a).cellCount()) {
+                    throw new IllegalStateException("Checkpoint has " + cells + " cells in archive " + a
+                            + ", run has " + archives.get(a).cellCount());
+                }
+                int elitesPerCell = archiveNodes.get(a).get("elitesPerCell").asInt();
+                if (elitesPerCell != archives.get(a).getElitesPerCell()) {
+                    throw new IllegalStateException("Checkpoint keeps " + elitesPerCell + " elites per cell in archive "
+                            + a + ", run keeps " + archives.get(a).getElitesPerCell());
+                }
+            }
+            int generation = snapshot.get("generation").asInt();
+            for (int a = 0; a < archives.size(); a++) {
+                MapElitesArchive archive = archives.get(a);
+                for (JsonNode elite : archiveNodes.get(a).get("elites")) {
+                    restoreElite(archive, elite);
+                }
+                for (JsonNode variant : archiveNodes.get(a).get("variants")) {
+                    JsonNode tree = variant.get("tree");
+                    archive.restoreVariant(variant.get("cell").asInt(), readTree(tree),
+                            (float) tree.get("fitness").asDouble());
+                }
+                for (JsonNode tree : archiveNodes.get(a).get("overflow")) {
+                    archive.restoreOverflow(readTree(tree), (float) tree.get("fitness").asDouble());
+                }
+            }
+
+            int replayed = 0;
+            File improvementsFile = new File(dir, IMPROVEMENTS);
+            if (improvementsFile.exists()) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(improvementsFile))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        JsonNode entry;
+                        try {
+                            entry = MAPPER.readTree(line);
+                        } catch (IOException e) {
+                            System.out.println("Ignoring incomplete checkpoint entry: " + line);
+                            break; // only the last line can be cut off by a crash
+                        }
+                        restoreElite(archives.get(entry.get("archive").asInt()), entry);
+                        generation = Math.max(generation, entry.get("generation").asInt() + 1);
+                        replayed++;
+                    }
+                }
+            }
+            int elites = 0;
+            for (MapElitesArchive archive : archives) {
+                elites += archive.occupiedCount();
+            }
+            System.out.println("Restored " + elites + " elites (" + replayed
+                    + " logged improvements), resuming at generation " + generation);
+            return new Restored(snapshot.get("seed").asLong(), generation);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read checkpoint in " + dir.getAbsolutePath(), e);
+        }
+    }
+
+    // also replays logged heap variants: the commit offers them to the heap and rejects them as elites
+    private static void restoreElite(MapElitesArchive archive, JsonNode elite) throws IOException {
+        JsonNode tree = elite.get("tree");
+        archive.restore(elite.get("cell").asInt(), readTree(tree), (float) tree.get("fitness").asDouble());
+    }
+
+    private static PersistentDungeonTree readTree(JsonNode tree) throws IOException {
+        return PersistentDungeonTree.of(DungeonTreeSerializer.fromJsonNode(tree));
+    }
+}
@@ -0,0 +1,164 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.SplitRandom;
+import com.codingame.game.tree.TreeStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Centroidal Voronoi tessellation (CVT-MAP-Elites): any number of descriptors, normalized to the unit cube,
+ * split into niches of similar volume around fixed centroids. A tree belongs to the niche of its nearest
+ * centroid, found with a k-d tree, so the number of niches no longer grows exponentially with the descriptors.
+ * Centroids come from k-means on uniform samples and depend only on the descriptors, niche count and seed,
+ * so archives built with the same arguments (e.g. to resume a run) have the same cells.
+ */
+public class CvtTessellation implements Tessellation {
+    private static final int SAMPLES_PER_NICHE = 20;
+    private static final int MAX_SAMPLES = 200_000;
+    private static final int ITERATIONS = 10;
+
+    private final List<Descriptor> descriptors;
+    private final float[][] centroids;
+    private final KdTree index;
+    private final int[][] neighbours;
+
+    public CvtTessellation(List<Descriptor> descriptors, int niches, long seed) {
+        this.descriptors = new ArrayList<>(descriptors);
+        this.centroids = kMeans(descriptors.size(), niches, new SplitRandom(seed));
+        this.index = new KdTree(centroids);
+        // the 2 * d nearest centroids stand in for the grid neighbours of each niche. Nearness is not symmetric,
+        // so a niche also neighbours every niche that counts it among its nearest
+        int neighbourCount = Math.min(2 * descriptors.size(), niches - 1);
+        List<Set<Integer>> adjacent = new ArrayList<>(niches);
+        for (int cell = 0; cell < niches; cell++) {
+            adjacent.add(new LinkedHashSet<>());
+        }
+        for (int cell = 0; cell < niches; cell++) {
+            int self = cell;
+            int[] nearest = index.nearest(centroids[cell], neighbourCount + 1);
+            Arrays.stream(nearest).filter(other -> other != self).limit(neighbourCount).forEach(other -> {
+                adjacent.get(self).add(other);
+                adjacent.get(other).add(self);
+            });
+        }
+        this.neighbours = new int[niches][];
+        for (int cell = 0; cell < niches; cell++) {
+            neighbours[cell] = adjacent.get(cell).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private static float[][] kMeans(int dimensions, int niches, Random random) {
+        int sampleCount = Math.min(Math.max(niches * SAMPLES_PER_NICHE, niches), MAX_SAMPLES);
+        float[][] samples = new float[sampleCount][dimensions];
+        for (float[] sample : samples) {
+            for (int d = 0; d < dimensions; d++) {
+                sample[d] = random.nextFloat();
+            }
+        }
+
+        float[][] centroids = new float[niches][];
+        for (int i = 0; i < niches; i++) {
+            centroids[i] = samples[i].clone();
+        }
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            KdTree tree = new KdTree(centroids);
+            double[][] sums = new double[niches][dimensions];
+            int[] counts = new int[niches];
+            for (float[] sample : samples) {
+                int nearest = tree.nearest(sample);
+                counts[nearest]++;
+                for (int d = 0; d < dimensions; d++) {
+                    sums[nearest][d] += sample[d];
+                }
+            }
+            float[][] moved = new float[niches][];
+            for (int i = 0; i < niches; i++) {
+                if (counts[i] == 0) {
+                    moved[i] = centroids[i]; // no samples: keep it where it is
+                    continue;
+                }
+                moved[i] = new float[dimensions];
+                for (int d = 0; d < dimensions; d++) {
+                    moved[i][d] = (float) (sums[i][d] / counts[i]);
+                }
+            }
+            centroids = moved;
+        }
+        return centroids;
+    }
+
+    public List<Descriptor> getDescriptors() {
+        return descriptors;
+    }
+
+    // centroid of a niche in normalized descriptor space
+    public float[] centroid(int cell) {
+        return centroids[cell].clone();
+    }
+
+    @Override
+    public int cellCount() {
+        return centroids.length;
+    }
+
+    @Override
+    public int dimensions() {
+        return descriptors.size();
+    }
+
+    @Override
+    public float[] describe(TreeStatistics tree) {
+        float[] values = new float[descriptors.size()];
+        for (int d = 0; d < values.length; d++) {
+            values[d] = descriptors.get(d).getFunction().apply(tree);
+        }
+        return values;
+    }
+
+    @Override
+    public int cellOf(float[] descriptor) {
+        float[] normalized = normalize(descriptor);
+        for (float value : normalized) {
+            if (value < 0 || value > 1) {
+                return -1; // outside archive bounds
+            }
+        }
+        return index.nearest(normalized);
+    }
+
+    @Override
+    public float[] normalize(float[] descriptor) {
+        float[] normalized = new float[descriptor.length];
+        for (int d = 0; d < descriptor.length; d++) {
+            normalized[d] = descriptors.get(d).normalize(descriptor[d]);
+        }
+        return normalized;
+    }
+
+    @Override
+    public int[] neighbours(int cell) {
+        return neighbours[cell];
+    }
+
+    @Override
+    public String cellName(int cell) {
+        return String.format("cell_%04d", cell);
+    }
+
+    @Override
+    public String info() {
+        StringBuilder sb = new StringBuilder();
+        for (Descriptor descriptor : descriptors) {
+            sb.append("Descriptor: ").append(descriptor.getName())
+                    .append(" min: ").append(descriptor.getMin())
+                    .append(" max: ").append(descriptor.getMax()).append("\n");
+        }
+        sb.append("Niches: ").append(centroids.length).append(" (CVT)\n");
+        return sb.toString();
+    }
+}
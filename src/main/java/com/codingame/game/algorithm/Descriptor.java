@@ -0,0 +1,35 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.Constants;
+import com.codingame.game.tree.TreeStatistics;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+// one axis of the behaviour space: a measure of a tree and the range the archive covers
+@Getter
+@AllArgsConstructor
+public class Descriptor {
+    public static final Descriptor DIFFICULTY = new Descriptor("difficulty", Fitness::averageDifficulty, 0.1f, 0.7f);
+    public static final Descriptor REWARD = new Descriptor("reward", Fitness::averageReward, 0.2f, 0.8f);
+    public static final Descriptor PATH_LENGTH = new Descriptor("path length", Fitness::startToExitLength, 0, Constants.MAX_NODES);
+    public static final Descriptor BRANCHING = new Descriptor("branching", Fitness::branching, 1, 3);
+    public static final Descriptor ROOM_COUNT = new Descriptor("room count", Fitness::roomCount, 1, Constants.MAX_NODES);
+
+    public static final List<Descriptor> ALL = Collections.unmodifiableList(
+            Arrays.asList(DIFFICULTY, REWARD, PATH_LENGTH, BRANCHING, ROOM_COUNT));
+
+    private final String name;
+    private final Function<TreeStatistics, Float> function;
+    private final float min;
+    private final float max;
+
+    // value mapped to [0, 1]; outside that range if the tree is outside the bounds
+    float normalize(float value) {
+        return (value - min) / (max - min);
+    }
+}
@@ -0,0 +1,136 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.PersistentDungeonTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The k best structurally distinct valid trees of one archive cell, as a bounded min-heap on fitness.
+ * Entries live in parallel arrays that grow up to k on demand, so sparse cells stay small and there is no
+ * object per entry besides the tree and its descriptor (both shared with the evaluation that produced them).
+ */
+class EliteHeap {
+    private static final int INITIAL_CAPACITY = 2;
+
+    private final int k;
+    private int size = 0;
+    private float[] fitness = new float[0];
+    private long[] hashes = new long[0];
+    private PersistentDungeonTree[] trees = new PersistentDungeonTree[0];
+    private float[][] descriptors = new float[0][];
+    // fitness a tree must beat to enter the heap; read without the lock when evaluations are bounded
+    private volatile float threshold = Float.NEGATIVE_INFINITY;
+
+    EliteHeap(int k) {
+        this.k = k;
+    }
+
+    int k() {
+        return k;
+    }
+
+    // the lowest fitness still kept once the heap is full, so evaluations can be pruned against it
+    float threshold() {
+        return threshold;
+    }
+
+    synchronized boolean offer(PersistentDungeonTree tree, long treeHash, float treeFitness, float[] descriptor) {
+        if (size == k && treeFitness <= fitness[0]) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (hashes[i] == treeHash) {
+                return false;
+            }
+        }
+        int slot;
+        if (size < k) {
+            if (size == fitness.length) {
+                grow();
+            }
+            slot = size++;
+            set(slot, tree, treeHash, treeFitness, descriptor);
+            siftUp(slot);
+        } else {
+            set(0, tree, treeHash, treeFitness, descriptor);
+            siftDown(0);
+        }
+        if (size == k) {
+            threshold = fitness[0];
+        }
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // best first
+    synchronized List<ArchiveRecord> records() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(fitness[b], fitness[a]));
+        List<ArchiveRecord> out = new ArrayList<>(size);
+        for (int i : order) {
+            out.add(new ArchiveRecord(trees[i], fitness[i], descriptors[i]));
+        }
+        return out;
+    }
+
+    private void grow() {
+        int capacity = Math.min(k, Math.max(INITIAL_CAPACITY, fitness.length * 2));
+        fitness = Arrays.copyOf(fitness, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        trees = Arrays.copyOf(trees, capacity);
+        descriptors = Arrays.copyOf(descriptors, capacity);
+    }
+
+    private void set(int slot, PersistentDungeonTree tree, long treeHash, float treeFitness, float[] descriptor) {
+        trees[slot] = tree;
+        hashes[slot] = treeHash;
+        fitness[slot] = treeFitness;
+        descriptors[slot] = descriptor;
+    }
+
+    private void siftUp(int slot) {
+        PersistentDungeonTree tree = trees[slot];
+        long treeHash = hashes[slot];
+        float treeFitness = fitness[slot];
+        float[] descriptor = descriptors[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) / 2;
+            if (fitness[parent] <= treeFitness) {
+                break;
+            }
+            set(slot, trees[parent], hashes[parent], fitness[parent], descriptors[parent]);
+            slot = parent;
+        }
+        set(slot, tree, treeHash, treeFitness, descriptor);
+    }
+
+    private void siftDown(int slot) {
+        PersistentDungeonTree tree = trees[slot];
+        long treeHash = hashes[slot];
+        float treeFitness = fitness[slot];
+        float[] descriptor = descriptors[slot];
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && fitness[child + 1] < fitness[child]) {
+                child++;
+            }
+            if (treeFitness <= fitness[child]) {
+                break;
+            }
+            set(slot, trees[child], hashes[child], fitness[child], descriptors[child]);
+            slot = child;
+        }
+        set(slot, tree, treeHash, treeFitness, descriptor);
+    }
+}
@@ -0,0 +1,68 @@
+package com.codingame.game.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the trees of an archive (elites and the other kept elites of their cells), indexed by
+ * their normalized descriptors for nearest and range queries. Distances are measured in the unit cube of the
+ * archive bounds, so every descriptor weighs the same whatever its units.
+ */
+class EliteIndex {
+    private final ArchiveRecord[] records;
+    private final KdTree tree;
+    // record indices by increasing first descriptor (difficulty in the default archives)
+    private final int[] byFirstDescriptor;
+
+    EliteIndex(List<ArchiveRecord> records, Tessellation tessellation) {
+        this.records = records.toArray(new ArchiveRecord[0]);
+        float[][] points = new float[this.records.length][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = tessellation.normalize(this.records[i].getDescriptor());
+        }
+        tree = new KdTree(points);
+        byFirstDescriptor = new int[points.length];
+        Integer[] order = new Integer[points.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(points[a][0], points[b][0]));
+        for (int i = 0; i < order.length; i++) {
+            byFirstDescriptor[i] = order[i];
+        }
+    }
+
+    int size() {
+        return records.length;
+    }
+
+    // nearest first; fewer than k if fewer records reach minFitness
+    List<ArchiveRecord> nearest(float[] normalized, int k, float minFitness) {
+        return toRecords(tree.nearest(normalized, k, i -> records[i].getFitness() >= minFitness));
+    }
+
+    // normalized bounds, included
+    List<ArchiveRecord> within(float[] min, float[] max, float minFitness) {
+        return toRecords(tree.within(min, max, i -> records[i].getFitness() >= minFitness));
+    }
+
+    // record with the lowest (or highest) first descriptor that reaches minFitness; null if there is none
+    ArchiveRecord extreme(boolean lowest, float minFitness) {
+        for (int i = 0; i < byFirstDescriptor.length; i++) {
+            ArchiveRecord rec = records[byFirstDescriptor[lowest ? i : byFirstDescriptor.length - 1 - i]];
+            if (rec.getFitness() >= minFitness) {
+                return rec;
+            }
+        }
+        return null;
+    }
+
+    private List<ArchiveRecord> toRecords(int[] indices) {
+        List<ArchiveRecord> out = new ArrayList<>(indices.length);
+        for (int i : indices) {
+            out.add(records[i]);
+        }
+        return out;
+    }
+}
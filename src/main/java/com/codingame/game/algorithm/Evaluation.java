@@ -0,0 +1,31 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.PersistentDungeonTree;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// descriptors and fitness of a tree, computed before it is committed to the archive
+@Data
+@AllArgsConstructor
+class Evaluation {
+    PersistentDungeonTree tree;
+    long treeHash;
+    float[] descriptor;
+    int cell; // -1 if outside archive bounds
+    float fitness;
+    boolean cached; // taken from the cache, computed for a structurally equal tree
+
+    // an evaluation computed for tree
+    Evaluation(PersistentDungeonTree tree, long treeHash, float[] descriptor, int cell, float fitness) {
+        this(tree, treeHash, descriptor, cell, fitness, false);
+    }
+
+    boolean isInBounds() {
+        return cell >= 0;
+    }
+
+    // this evaluation reused for tree, structurally equal to the one it was computed for
+    Evaluation cachedFor(PersistentDungeonTree tree) {
+        return new Evaluation(tree, treeHash, descriptor, cell, fitness, true);
+    }
+}
@@ -0,0 +1,90 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.PersistentDungeonTree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU of evaluations keyed by {@link com.codingame.game.tree.PersistentDungeonTree#structuralHash()}.
+ * Split into independently locked segments, so parallel workers rarely wait for each other.
+ * Entries keep their tree, so a hit is confirmed by structural equality and never trusts the 64-bit hash alone;
+ * the trees are immutable and mostly share their subtrees with the archive's elites.
+ */
+class EvaluationCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class Segment extends LinkedHashMap<Long, Evaluation> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true); // access order -> LRU
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Evaluation> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    EvaluationCache(int capacity) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash ^ (hash >>> 32)) & (SEGMENTS - 1)];
+    }
+
+    // evaluation of a tree structurally equal to tree; null on miss
+    Evaluation get(PersistentDungeonTree tree, long hash) {
+        Segment segment = segmentFor(hash);
+        Evaluation cached;
+        synchronized (segment) {
+            cached = segment.get(hash);
+        }
+        if (cached != null && !cached.getTree().structurallyEquals(tree)) {
+            cached = null; // hash collision
+        }
+        if (cached == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return cached;
+    }
+
+    // pruned evaluations are not kept: they only hold against the elite they were bounded by, which may since
+    // have been replaced by a worse one (e.g. after a rebin), so the tree is evaluated again
+    void put(Evaluation evaluation) {
+        if (evaluation.getFitness() == Fitness.PRUNED) {
+            return;
+        }
+        Segment segment = segmentFor(evaluation.getTreeHash());
+        synchronized (segment) {
+            segment.put(evaluation.getTreeHash(), evaluation);
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getLookups() {
+        return hits.sum() + misses.sum();
+    }
+
+    float hitRate() {
+        long lookups = getLookups();
+        return lookups == 0 ? 0f : (float) getHits() / lookups;
+    }
+}
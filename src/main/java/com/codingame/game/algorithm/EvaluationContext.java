@@ -0,0 +1,60 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.PersistentDungeonTree;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Random;
+
+/**
+ * A tree under evaluation and the fitness components computed for it so far. Archives that evaluate the same
+ * offspring share one context, so each component (above all the layout check) is computed at most once.
+ * Not thread-safe: a context belongs to the thread evaluating its tree.
+ */
+@Getter
+public class EvaluationContext {
+    private final PersistentDungeonTree tree;
+    private final Random random;
+
+    // NaN until computed
+    @Getter(AccessLevel.NONE)
+    private float quality = Float.NaN;
+    @Getter(AccessLevel.NONE)
+    private float structuralControl = Float.NaN;
+    @Getter(AccessLevel.NONE)
+    private float layout = Float.NaN;
+
+    public EvaluationContext(PersistentDungeonTree tree, Random random) {
+        this.tree = tree;
+        this.random = random;
+    }
+
+    // components computed elsewhere (e.g. by a remote worker); NaN for the ones still to compute
+    EvaluationContext(PersistentDungeonTree tree, Random random, float quality, float structuralControl, float layout) {
+        this(tree, random);
+        this.quality = quality;
+        this.structuralControl = structuralControl;
+        this.layout = layout;
+    }
+
+    float quality() {
+        if (Float.isNaN(quality)) {
+            quality = Fitness.quality(tree);
+        }
+        return quality;
+    }
+
+    float structuralControl() {
+        if (Float.isNaN(structuralControl)) {
+            structuralControl = Fitness.structuralControl(tree);
+        }
+        return structuralControl;
+    }
+
+    float layout() {
+        if (Float.isNaN(layout)) {
+            layout = Fitness.canGenerateLayout(tree, random);
+        }
+        return layout;
+    }
+}
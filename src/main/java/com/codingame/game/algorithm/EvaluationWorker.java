@@ -0,0 +1,98 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.SplitRandom;
+import com.codingame.game.tree.PersistentDungeonTree;
+import com.codingame.game.tree.DungeonTreeSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Worker process of remote evaluation (see RemoteEvaluator): computes the fitness components of the trees a
+ * MapElites coordinator sends, so the layout checks of one run can be spread over many processes and hosts.
+ * <p>
+ * Usage: {@code EvaluationWorker <port> [threads]}. Every connection is one coordinator; on it, each request is a
+ * batch of {@code int n} trees, each as {@code long randomState, float layoutBound} and the compact tree
+ * (DungeonTreeSerializer.writeCompact, read as a PersistentDungeonTree), answered by n times
+ * {@code float quality, structuralControl, layout}. A negative n ends the connection. The layout check draws from
+ * {@code new SplitRandom(randomState)}, the state of the coordinator's generation stream, so a remote evaluation
+ * gives exactly the local result.
+ */
+public final class EvaluationWorker {
+    // batch size that ends a connection
+    static final int END = -1;
+
+    private EvaluationWorker() {
+    }
+
+    // the components of Fitness.fitness; the layout check only runs if quality * structural control can reach
+    // layoutBound, as the bounded evaluation of the default fitness would decide
+    static float[] evaluate(PersistentDungeonTree tree, long randomState, float layoutBound) {
+        float control = Fitness.structuralControl(tree);
+        float quality = Fitness.quality(tree);
+        float layout = control > 0f && quality * control >= layoutBound
+                ? Fitness.canGenerateLayout(tree, new SplitRandom(randomState))
+                : Float.NaN;
+        return new float[]{quality, control, layout};
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("Evaluation worker listening on port " + server.getLocalPort() + " with " + threads
+                    + " threads");
+            while (true) {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> serve(socket, executor), "evaluation-" + socket.getPort());
+                connection.setDaemon(true);
+                connection.start();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void serve(Socket socket, ExecutorService executor) {
+        System.out.println("Coordinator connected: " + socket.getRemoteSocketAddress());
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            int n;
+            while ((n = in.readInt()) >= 0) {
+                List<Future<float[]>> results = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    long randomState = in.readLong();
+                    float layoutBound = in.readFloat();
+                    PersistentDungeonTree tree = DungeonTreeSerializer.readPersistentCompact(in);
+                    results.add(executor.submit(() -> evaluate(tree, randomState, layoutBound)));
+                }
+                for (Future<float[]> result : results) {
+                    float[] components = MapElites.await(result);
+                    out.writeFloat(components[0]);
+                    out.writeFloat(components[1]);
+                    out.writeFloat(components[2]);
+                }
+                out.flush();
+            }
+            System.out.println("Coordinator done: " + socket.getRemoteSocketAddress());
+        } catch (EOFException e) {
+            System.out.println("Coordinator disconnected: " + socket.getRemoteSocketAddress());
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Connection to " + socket.getRemoteSocketAddress() + " failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.codingame.game.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * Binary indexed tree over non-negative weights: O(log n) weight updates and O(log n) weighted draws.
+ */
+class FenwickTree {
+    private final double[] tree; // 1-based
+    private final double[] weights;
+    private final int highestPowerOfTwo;
+
+    FenwickTree(int capacity) {
+        tree = new double[capacity + 1];
+        weights = new double[capacity];
+        highestPowerOfTwo = Integer.highestOneBit(Math.max(1, capacity));
+    }
+
+    double get(int index) {
+        return weights[index];
+    }
+
+    void set(int index, double weight) {
+        double delta = weight - weights[index];
+        weights[index] = weight;
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    double total() {
+        double sum = 0;
+        for (int i = tree.length - 1; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    // index whose cumulative weight range contains target, target in [0, total()); only indices < limit are returned
+    int find(double target, int limit) {
+        int position = 0;
+        for (int step = highestPowerOfTwo; step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < tree.length && tree[next] <= target) {
+                position = next;
+                target -= tree[next];
+            }
+        }
+        // rounding can push the target past the last positive weight
+        int index = Math.min(position, limit - 1);
+        while (index > 0 && weights[index] <= 0) {
+            index--;
+        }
+        return index;
+    }
+
+    void clear() {
+        Arrays.fill(tree, 0);
+        Arrays.fill(weights, 0);
+    }
+}
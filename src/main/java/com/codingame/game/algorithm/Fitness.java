@@ -4,48 +4,42 @@ import com.codingame.game.Constants;
 import com.codingame.game.generator.LayoutGenerator;
 import com.codingame.game.tree.DungeonTree;
 import com.codingame.game.tree.NodeTypes;
+import com.codingame.game.tree.PersistentDungeonTree;
+import com.codingame.game.tree.RoomTree;
+import com.codingame.game.tree.TreeStatistics;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 public final class Fitness {
+    // result of a bounded evaluation that stopped because the tree could not beat the elite; below any real fitness
+    public static final float PRUNED = -1.0f;
+
     // ------------------ quality ------------------
     // more -> better (up to 75% of max nodes)
-    static float countNodes(DungeonTree tree) {
+    static float countNodes(TreeStatistics tree) {
         int count = tree.countNodes();  // todo: rethink
         float value = (float) count / Constants.MAX_NODES;
         return 1.0f - Math.abs(value - 0.75f);
     }
 
     // ideal is ~4 grandchildren per node, to avoid deep backtracking
-    static float countGrandchildren(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
-
-        int penaltyCount = 0;
-        for (DungeonTree node : nodes) {
-            int grandchildCount = node.getGrandchildren().size();
-            penaltyCount += Math.abs(grandchildCount - 4);
-        }
+    static float countGrandchildren(TreeStatistics tree) {
+        int penaltyCount = tree.grandchildrenPenalty();
 
         float penalty = (float) penaltyCount / (float) (tree.countNodes() * 7);
         return 1.0f - penalty;
     }
 
-    static float nodesDiversity(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
-
-        Map<String, Integer> types = new HashMap<>();
-        for (DungeonTree node : nodes) {
-            types.put(node.getType().getName(), types.getOrDefault(node.getType().getName(), 0) + 1);
+    static float nodesDiversity(TreeStatistics tree) {
+        int sumOfSquares = 0;
+        for (int kind = 0; kind < NodeTypes.KINDS; kind++) {
+            int count = tree.countOfKind(kind);
+            sumOfSquares += count * count;
         }
 
-        int sumOfSquares = types.values().stream()
-                .mapToInt(count -> count * count)
-                .sum();
-
-        int totalNodes = nodes.size();
+        int totalNodes = tree.countNodes();
         float maxSum = (float) (totalNodes * totalNodes);
         float minSum = (float) totalNodes;
 
@@ -53,38 +47,24 @@ public final class Fitness {
     }
 
     // which part of the dungeon is on the main path from start to exit; should be ~50%
-    static float startToExitPath(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
-
-        DungeonTree start = null;
-        DungeonTree exit = null;
-
-        for (DungeonTree node : nodes) {
-            if (node.getType() instanceof NodeTypes.Start) {
-                start = node;
-            } else if (node.getType() instanceof NodeTypes.Exit) {
-                exit = node;
-            }
-        }
-
-        if (start == null || exit == null) {
+    static float startToExitPath(TreeStatistics tree) {
+        int distance = tree.startToExitDistance();
+        if (distance < 0) {
             return 0;
         }
 
-        int distance = tree.getTreeDistance(start, exit);
         float percent = distance / (float)(tree.countNodes());
         return 1.0f - Math.abs(percent - 0.5f);
     }
 
     // ------------------ controls ------------------
-    static float countNodesControl(DungeonTree tree) {
+    static float countNodesControl(TreeStatistics tree) {
         int count = tree.countNodes();
         return (float) count / Constants.MAX_NODES;
     }
 
     // should have start and exit
-    static float hasStartAndExitOnce(DungeonTree tree) {
+    static float hasStartAndExitOnce(TreeStatistics tree) {
         if (tree.hasStartAndExitOnce()) {
             return 1.0f;
         } else {
@@ -93,11 +73,11 @@ public final class Fitness {
     }
 
     // todo: maybe it should be more strict in later generations (eg. 80%+)
-    static float canGenerateLayout(DungeonTree tree) {
+    static <T extends RoomTree<T>> float canGenerateLayout(T tree, Random random) {
         float successRate = 0f;
         for (int i = 0; i < 5; i++) {
             try {
-                LayoutGenerator.generateLayout(tree, 1);
+                LayoutGenerator.generateLayout(tree, 1, random);
                 successRate += 0.2f;
             } catch (IllegalArgumentException e) {
                 // try again
@@ -111,45 +91,31 @@ public final class Fitness {
     }
 
     // if there are more than 7 children, collisions are unavoidable
-    static float checkGrandchildren(DungeonTree tree) {
-        return checkGrandchildrenRec(tree) ? 1f : 0f;
+    static float checkGrandchildren(TreeStatistics tree) {
+        return tree.maxGrandchildren() > 7 ? 0f : 1f;
     }
 
-    private static boolean checkGrandchildrenRec(DungeonTree tree) {
-        if (tree.getGrandchildren().size() > 7) {
-            return false;
-        }
-
-        for (DungeonTree child : tree.getChildren()) {
-            if (!checkGrandchildrenRec(child)) {
-                return false;
-            }
-        }
-
-        return true;
+    // ------------------ other ------------------
+    static float averageDifficulty(TreeStatistics tree) {
+        return tree.averageDifficulty();
     }
 
-    // ------------------ other ------------------
-    static float averageDifficulty(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
+    static float averageReward(TreeStatistics tree) {
+        return tree.averageReward();
+    }
 
-        float totalDifficulty = 0;
-        for (DungeonTree node : nodes) {
-            totalDifficulty += node.getType().getDifficulty();
-        }
-        return totalDifficulty / nodes.size();
+    static float startToExitLength(TreeStatistics tree) {
+        return Math.max(tree.startToExitDistance(), 0);
     }
 
-    static float averageReward(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
+    // average number of children of the rooms that have any; 0 for a single room
+    static float branching(TreeStatistics tree) {
+        int inner = tree.countNodes() - tree.countLeaves();
+        return inner == 0 ? 0 : (float) (tree.countNodes() - 1) / inner;
+    }
 
-        float totalReward = 0;
-        for (DungeonTree node : nodes) {
-            totalReward += node.getType().getReward();
-        }
-        return totalReward / nodes.size();
+    static float roomCount(TreeStatistics tree) {
+        return tree.countNodes();
     }
 
     // ------------- API -------------
@@ -163,7 +129,7 @@ public final class Fitness {
         return min;
     }
 
-    private static float quality(DungeonTree tree) {
+    static float quality(TreeStatistics tree) {
         return (
                 countNodes(tree)
                 + startToExitPath(tree)
@@ -172,13 +138,48 @@ public final class Fitness {
         ) / 4;
     }
 
-    private static float control(DungeonTree tree) {
-        return min(hasStartAndExitOnce(tree), checkGrandchildren(tree), countNodesControl(tree), canGenerateLayout(tree));
+    private static float control(DungeonTree tree, Random random) {
+        return min(hasStartAndExitOnce(tree), checkGrandchildren(tree), countNodesControl(tree), canGenerateLayout(tree, random));
+    }
+
+    // every control except the layout check; all O(1)
+    static float structuralControl(TreeStatistics tree) {
+        return min(hasStartAndExitOnce(tree), countNodesControl(tree), checkGrandchildren(tree));
     }
 
     public static float fitness(DungeonTree tree, boolean quality, boolean control) {
+        return fitness(tree, quality, control, ThreadLocalRandom.current());
+    }
+
+    public static float fitness(DungeonTree tree, boolean quality, boolean control, Random random) {
         float q = quality ? quality(tree): 1.0f;
-        float c = control ? control(tree): 1.0f;
+        float c = control ? control(tree, random): 1.0f;
         return q * c;
     }
+
+    // same value as fitness(), but checks run cheapest first and stop as soon as the result is known;
+    // returns PRUNED instead of running the layout check when the tree cannot reach toBeat
+    public static float fitness(DungeonTree tree, boolean quality, boolean control, Random random, float toBeat) {
+        return fitness(new EvaluationContext(PersistentDungeonTree.of(tree), random), quality, control, toBeat);
+    }
+
+    // as above, reusing the components already computed in context
+    public static float fitness(EvaluationContext context, boolean quality, boolean control, float toBeat) {
+        float c = 1.0f;
+        if (control) {
+            c = context.structuralControl();
+            if (c == 0f) {
+                return 0f;
+            }
+        }
+        float q = quality ? context.quality() : 1.0f;
+        if (!control) {
+            return q;
+        }
+        // layout check is at most 1, so q * c is the best case
+        if (q * c < toBeat) {
+            return PRUNED;
+        }
+        return q * Math.min(c, context.layout());
+    }
 }
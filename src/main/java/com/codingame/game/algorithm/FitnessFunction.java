@@ -0,0 +1,10 @@
+package com.codingame.game.algorithm;
+
+// fitness may be stochastic (layout checks), so it draws from the random stream of the context.
+// The context may be shared by several archives; fitness components should be read through it so they are
+// computed once. toBeat is the fitness of the current elite in the tree's cell; a function may stop early
+// and return Fitness.PRUNED once it knows the tree cannot reach it
+@FunctionalInterface
+public interface FitnessFunction {
+    float apply(EvaluationContext context, float toBeat);
+}
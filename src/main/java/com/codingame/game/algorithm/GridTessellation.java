@@ -0,0 +1,124 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.TreeStatistics;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The classic MAP-Elites grid: two descriptors, each split into size equal intervals.
+ * Cell (x, y) is x * size + y.
+ */
+@Getter
+public class GridTessellation implements Tessellation {
+    private final Function<TreeStatistics, Float> xAxisFunction;
+    private final Function<TreeStatistics, Float> yAxisFunction;
+    private final float min_x;
+    private final float max_x;
+    private final float min_y;
+    private final float max_y;
+    private final int size;
+    @Getter(AccessLevel.NONE)
+    private final int[][] neighbours;
+
+    public GridTessellation(
+            Function<TreeStatistics, Float> xAxisFunction,
+            Function<TreeStatistics, Float> yAxisFunction,
+            float min_x, float max_x, float min_y, float max_y,
+            int size
+    ) {
+        this.xAxisFunction = xAxisFunction;
+        this.yAxisFunction = yAxisFunction;
+        this.min_x = min_x;
+        this.max_x = max_x;
+        this.min_y = min_y;
+        this.max_y = max_y;
+        this.size = size;
+        this.neighbours = new int[size * size][];
+        for (int cell = 0; cell < size * size; cell++) {
+            neighbours[cell] = gridNeighbours(cell);
+        }
+    }
+
+    @Override
+    public int cellCount() {
+        return size * size;
+    }
+
+    @Override
+    public int dimensions() {
+        return 2;
+    }
+
+    @Override
+    public float[] describe(TreeStatistics tree) {
+        return new float[]{xAxisFunction.apply(tree), yAxisFunction.apply(tree)};
+    }
+
+    @Override
+    public int cellOf(float[] descriptor) {
+        int xIndex = mapToIndex(descriptor[0], min_x, max_x);
+        int yIndex = mapToIndex(descriptor[1], min_y, max_y);
+        if (xIndex < 0 || yIndex < 0) {
+            return -1;
+        }
+        return cell(xIndex, yIndex);
+    }
+
+    @Override
+    public float[] normalize(float[] descriptor) {
+        return new float[]{(descriptor[0] - min_x) / (max_x - min_x), (descriptor[1] - min_y) / (max_y - min_y)};
+    }
+
+    private int mapToIndex(float value, float min, float max) {
+        if (value < min || value > max) {
+            return -1; // outside archive bounds
+        }
+        float normalized = (value - min) / (max - min); // [0,1]
+        int index = (int) (normalized * size);
+        return Math.min(index, size - 1);
+    }
+
+    public int cell(int xIndex, int yIndex) {
+        return xIndex * size + yIndex;
+    }
+
+    @Override
+    public int[] neighbours(int cell) {
+        return neighbours[cell];
+    }
+
+    // 8-neighbourhood
+    private int[] gridNeighbours(int cell) {
+        int x = cell / size;
+        int y = cell % size;
+        List<Integer> neighbours = new ArrayList<>(8);
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                if ((dx != 0 || dy != 0) && nx >= 0 && nx < size && ny >= 0 && ny < size) {
+                    neighbours.add(cell(nx, ny));
+                }
+            }
+        }
+        return neighbours.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public String cellName(int cell) {
+        return String.format("x_%02d_y_%02d", cell / size, cell % size);
+    }
+
+    @Override
+    public String info() {
+        return "X function: difficulty\n"
+                + "X bounds: min: " + min_x + " max: " + max_x + "\n"
+                + "Y function: reward\n"
+                + "Y bounds: min: " + min_y + " max: " + max_y + "\n"
+                + "Buckets: " + size * size + " (" + size + " per line)\n";
+    }
+}
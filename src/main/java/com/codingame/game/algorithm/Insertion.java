@@ -0,0 +1,37 @@
+package com.codingame.game.algorithm;
+
+// outcome of committing an evaluated tree to the archive
+public enum Insertion {
+    REJECTED,
+    // not the elite, but kept among the best distinct trees of its cell (elitesPerCell > 1)
+    VARIANT,
+    // an equally fit tree took the cell: the archive changed, but nothing was gained
+    REPLACED,
+    NEW_CELL,
+    IMPROVED;
+
+    // the committed tree is now the elite of its cell
+    public boolean isInserted() {
+        return this != REJECTED && this != VARIANT;
+    }
+
+    // the archive keeps the committed tree, as the elite or as a variant
+    public boolean isKept() {
+        return this != REJECTED;
+    }
+
+    // the archive gained something: a new cell or a better elite
+    public boolean isImprovement() {
+        return this == NEW_CELL || this == IMPROVED;
+    }
+
+    // the more valuable outcome: a new cell beats an improvement, then a replacement, a variant and a rejection
+    public Insertion best(Insertion other) {
+        for (Insertion outcome : new Insertion[]{NEW_CELL, IMPROVED, REPLACED, VARIANT}) {
+            if (this == outcome || other == outcome) {
+                return outcome;
+            }
+        }
+        return REJECTED;
+    }
+}
@@ -0,0 +1,90 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.SplitRandom;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs the island model on one machine: one JVM per island, each evolving its own archive with its own seed and
+ * exchanging elites through files (see Migration), then merges the island archives into one.
+ * Islands share no memory, so total evaluations grow linearly with the number of islands.
+ * <p>
+ * Usage: {@code Islands <islands> <generations per island> [threads per island]}; the output folder in levels/
+ * holds one archive folder and log per island, the migration directory and the merged archive.
+ * On several nodes, start {@code Islands --island <i> <generations> <threads> <output folder> <seed>} on each,
+ * with the output folder on a shared file system, and merge the island folders with MapElites.merge.
+ */
+public final class Islands {
+    private static final String ISLAND_FLAG = "--island";
+
+    private Islands() {
+    }
+
+    private static MapElitesSettings settings(int island, int generations, int threads, File outputDir, long seed) {
+        return MapElitesSettings.builder()
+                .generations(generations)
+                .threads(threads)
+                .batchSize(threads > 1 ? 64 : 0)
+                .seed(SplitRandom.stream(seed, island).nextLong())
+                .migrationDir(new File(outputDir, "migration"))
+                .island(island)
+                .build();
+    }
+
+    private static File islandDir(File outputDir, int island) {
+        return new File(outputDir, "island_" + island);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals(ISLAND_FLAG)) {
+            runIsland(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    new File(args[4]), Long.parseLong(args[5]));
+            return;
+        }
+        int islands = Integer.parseInt(args[0]);
+        int generations = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        long seed = ThreadLocalRandom.current().nextLong();
+        File outputDir = new File("levels", MapElitesArchive.nowAsDirName() + "_islands");
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new RuntimeException("Cannot create directory: " + outputDir);
+        }
+        System.out.println("Seed: " + seed + ", output: " + outputDir);
+
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        List<Process> processes = new ArrayList<>();
+        for (int island = 0; island < islands; island++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    Islands.class.getName(), ISLAND_FLAG, String.valueOf(island), String.valueOf(generations),
+                    String.valueOf(threads), outputDir.getPath(), String.valueOf(seed));
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(new File(outputDir, "island_" + island + ".log"));
+            processes.add(builder.start());
+        }
+        List<File> islandDirs = new ArrayList<>();
+        for (int island = 0; island < islands; island++) {
+            int exit = processes.get(island).waitFor();
+            if (exit != 0) {
+                throw new RuntimeException("Island " + island + " failed with exit code " + exit + ", see "
+                        + new File(outputDir, "island_" + island + ".log"));
+            }
+            islandDirs.add(islandDir(outputDir, island));
+        }
+
+        MapElitesArchive merged = MapElites.merge(settings(0, generations, threads, outputDir, seed), islandDirs);
+        merged.print();
+        merged.serializeArchive(islands * generations, new File(outputDir, "merged"));
+    }
+
+    private static void runIsland(int island, int generations, int threads, File outputDir, long seed) {
+        MapElitesSettings settings = settings(island, generations, threads, outputDir, seed);
+        System.out.println("Island " + island + ", seed: " + settings.getSeed());
+        MapElitesArchive archive = MapElites.run(settings);
+        archive.print();
+        archive.serializeArchive(archive.getGenerationsRun(), islandDir(outputDir, island));
+    }
+}
@@ -0,0 +1,164 @@
+package com.codingame.game.algorithm;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Static k-d tree over a fixed set of points for nearest-neighbour and box queries, O(log n) on average.
+ * Each node splits on its widest axis at the median. The tree is never modified after construction,
+ * so any number of threads may query it.
+ */
+class KdTree {
+    private final float[][] points;
+    // node -> index of its point, split axis and children (-1: none)
+    private final int[] pointOf;
+    private final int[] axisOf;
+    private final int[] left;
+    private final int[] right;
+    private final int root;
+    private int nodes = 0;
+
+    KdTree(float[][] points) {
+        this.points = points;
+        int n = points.length;
+        pointOf = new int[n];
+        axisOf = new int[n];
+        left = new int[n];
+        right = new int[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        root = build(order, 0, n);
+    }
+
+    private int build(Integer[] order, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int axis = widestAxis(order, from, to);
+        Arrays.sort(order, from, to, Comparator.comparingDouble(i -> points[i][axis]));
+        int mid = (from + to) >>> 1;
+        int node = nodes++;
+        pointOf[node] = order[mid];
+        axisOf[node] = axis;
+        left[node] = build(order, from, mid);
+        right[node] = build(order, mid + 1, to);
+        return node;
+    }
+
+    private int widestAxis(Integer[] order, int from, int to) {
+        int widest = 0;
+        float widestSpread = -1;
+        for (int axis = 0; axis < points[order[from]].length; axis++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                float value = points[order[i]][axis];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = axis;
+            }
+        }
+        return widest;
+    }
+
+    // index of the point closest to query
+    int nearest(float[] query) {
+        return nearest(query, 1)[0];
+    }
+
+    // indices of the k points closest to query, nearest first
+    int[] nearest(float[] query, int k) {
+        return nearest(query, k, null);
+    }
+
+    // indices of the k accepted points closest to query, nearest first; fewer if fewer points are accepted
+    int[] nearest(float[] query, int k, IntPredicate accept) {
+        k = Math.min(k, points.length);
+        if (k == 0) {
+            return new int[0];
+        }
+        int[] best = new int[k];
+        double[] bestDistance = new double[k];
+        Arrays.fill(bestDistance, Double.POSITIVE_INFINITY);
+        search(root, query, accept, best, bestDistance);
+        int found = 0;
+        while (found < k && bestDistance[found] < Double.POSITIVE_INFINITY) {
+            found++;
+        }
+        return found == k ? best : Arrays.copyOf(best, found);
+    }
+
+    private void search(int node, float[] query, IntPredicate accept, int[] best, double[] bestDistance) {
+        if (node < 0) {
+            return;
+        }
+        int point = pointOf[node];
+        double distance = squaredDistance(points[point], query);
+        int last = best.length - 1;
+        if (distance < bestDistance[last] && (accept == null || accept.test(point))) {
+            // insert into the candidates, which are kept sorted by distance
+            int i = last;
+            while (i > 0 && bestDistance[i - 1] > distance) {
+                bestDistance[i] = bestDistance[i - 1];
+                best[i] = best[i - 1];
+                i--;
+            }
+            bestDistance[i] = distance;
+            best[i] = point;
+        }
+
+        int axis = axisOf[node];
+        double offset = query[axis] - points[point][axis];
+        search(offset < 0 ? left[node] : right[node], query, accept, best, bestDistance);
+        // the other side can only hold closer points if the splitting plane is closer than the worst candidate
+        if (offset * offset < bestDistance[last]) {
+            search(offset < 0 ? right[node] : left[node], query, accept, best, bestDistance);
+        }
+    }
+
+    // indices of the accepted points inside the box [min, max] (bounds included), in no particular order
+    int[] within(float[] min, float[] max, IntPredicate accept) {
+        IntStream.Builder found = IntStream.builder();
+        within(root, min, max, accept, found);
+        return found.build().toArray();
+    }
+
+    private void within(int node, float[] min, float[] max, IntPredicate accept, IntStream.Builder found) {
+        if (node < 0) {
+            return;
+        }
+        int point = pointOf[node];
+        float[] coordinates = points[point];
+        boolean inside = true;
+        for (int axis = 0; axis < coordinates.length && inside; axis++) {
+            inside = coordinates[axis] >= min[axis] && coordinates[axis] <= max[axis];
+        }
+        if (inside && (accept == null || accept.test(point))) {
+            found.add(point);
+        }
+        int axis = axisOf[node];
+        // left holds values <= the split, right values >= it
+        if (min[axis] <= coordinates[axis]) {
+            within(left[node], min, max, accept, found);
+        }
+        if (max[axis] >= coordinates[axis]) {
+            within(right[node], min, max, accept, found);
+        }
+    }
+
+    static double squaredDistance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+}
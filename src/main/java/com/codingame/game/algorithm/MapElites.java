@@ -1,148 +1,726 @@
 package com.codingame.game.algorithm;
 
-import com.codingame.game.move.Direction;
+import com.codingame.game.SplitRandom;
 import com.codingame.game.tree.DungeonTree;
 import com.codingame.game.tree.NodeTypes;
+import com.codingame.game.tree.PersistentDungeonTree;
+import lombok.AllArgsConstructor;
 
+import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public final class MapElites {
     final static int GENERATIONS_DEFAULT = 10_000_000;
     final static int BASE_POPULATION = 100;
-
-    private static DungeonTree getRandomNode(DungeonTree root) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        root.collectNodes(nodes);
-        return nodes.get(ThreadLocalRandom.current().nextInt(nodes.size()));
-    }
+    // fixed, so CVT archives of different runs share their niches
+    final static long CVT_SEED = 0x5eedc0deL;
 
 // ------------------------- mutations -------------------------
-    private static void changeRoomType(DungeonTree tree) {
-        tree.setType(NodeTypes.getRandomRoom());
+    // trees are immutable: every operator returns the edited tree, sharing the untouched subtrees with its parent.
+    // Nodes are picked by pre-order index, the same draw and node as picking from collectNodes
+
+    private static PersistentDungeonTree changeRoomType(PersistentDungeonTree tree, int node, Random random) {
+        return tree.withType(node, NodeTypes.getRandomRoom(random));
     }
 
-    private static void swapRoomTypes(DungeonTree tree1, DungeonTree tree2) {
-        NodeTypes.Base temp = tree1.getType();
-        tree1.setType(tree2.getType());
-        tree2.setType(temp);
+    private static PersistentDungeonTree swapRoomTypes(PersistentDungeonTree tree, int node1, int node2) {
+        NodeTypes.Base type1 = tree.nodeAt(node1).getType();
+        NodeTypes.Base type2 = tree.nodeAt(node2).getType();
+        return tree.withType(node1, type2).withType(node2, type1);
     }
 
-    private static void addChildNode(DungeonTree tree) {
-        if (tree.getChildren().size() < 3) {
-            tree.addChild(new DungeonTree(tree));
+    private static PersistentDungeonTree addChildNode(PersistentDungeonTree tree, int node, Random random) {
+        if (tree.nodeAt(node).childCount() < 3) {
+            return tree.withChild(node, PersistentDungeonTree.leaf(NodeTypes.getRandomRoom(random)));
         }
+        return tree;
     }
 
-    private static void removeChildNode(DungeonTree tree) {
-        HashSet<DungeonTree> children = tree.getChildren();
+    private static PersistentDungeonTree removeChildNode(PersistentDungeonTree tree, int node, Random random) {
+        int children = tree.nodeAt(node).childCount();
 
-        if (children.isEmpty()) return; // shouldn't happen, but just in case
+        if (children == 0) return tree; // shouldn't happen, but just in case
 
-        DungeonTree removed = tree.removeRandomChild();
+        int index = random.nextInt(children);
+        NodeTypes.Base removed = tree.nodeAt(node).getChild(index).getType();
+        tree = tree.withoutChild(node, index);
 
-        if (removed != null && removed.getType() instanceof NodeTypes.Start) {
-            tree.setType(new NodeTypes.Start());
+        if (removed instanceof NodeTypes.Start) {
+            tree = tree.withType(node, new NodeTypes.Start());
         }
-        if (removed != null && removed.getType() instanceof NodeTypes.Exit) {
-            tree.setType(new NodeTypes.Exit());
+        if (removed instanceof NodeTypes.Exit) {
+            tree = tree.withType(node, new NodeTypes.Exit());
         }
+        return tree;
+    }
+
+    // the mutated tree, the decision point and the index of the operator that was applied
+    @AllArgsConstructor
+    private static final class Mutation {
+        final PersistentDungeonTree tree;
+        final Operator.Context context;
+        final int arm;
     }
 
-    private static DungeonTree mutate(DungeonTree tree) {
-        DungeonTree treeCopy = tree.deepCopy();
-        DungeonTree randomChild = getRandomNode(treeCopy);
-        if (randomChild == null) return treeCopy;
-        float rand = (float)Math.random();
+    private static Mutation mutate(PersistentDungeonTree tree, Random random, OperatorScheduler scheduler) {
+        int node = random.nextInt(tree.countNodes());
+        PersistentDungeonTree randomChild = tree.nodeAt(node);
+        Operator.Context context;
         if (randomChild.isLeaf()) {
-            if (rand < 0.5f) {
-                changeRoomType(randomChild);
-            } else {
-                addChildNode(randomChild);
-            }
+            context = Operator.Context.LEAF;
         } else if (randomChild.isStartOrExit()) {
-             if (rand < 0.33f) {
-                 DungeonTree randomChild2 = getRandomNode(treeCopy);
-                 swapRoomTypes(randomChild, randomChild2);
-            } else if (rand < 0.66f) {
-                addChildNode(randomChild);
-            } else {
-                removeChildNode(randomChild);
+            context = Operator.Context.START_OR_EXIT;
+        } else {
+            context = Operator.Context.INNER;
+        }
+        int arm = scheduler.choose(context, random);
+        PersistentDungeonTree mutated;
+        switch (context.getOperators()[arm]) {
+            case CHANGE_ROOM_TYPE:
+                mutated = changeRoomType(tree, node, random);
+                break;
+            case ADD_CHILD:
+                mutated = addChildNode(tree, node, random);
+                break;
+            case REMOVE_CHILD:
+                mutated = removeChildNode(tree, node, random);
+                break;
+            case SWAP_ROOM_TYPES:
+                mutated = swapRoomTypes(tree, node, random.nextInt(tree.countNodes()));
+                break;
+            default:
+                throw new IllegalStateException("Not a mutation: " + context.getOperators()[arm]);
+        }
+        return new Mutation(mutated, context, arm);
+    }
+
+// ------------------------- crossover -------------------------
+    private static PersistentDungeonTree crossover(PersistentDungeonTree parent1, PersistentDungeonTree parent2,
+                                                   Random random) {
+        if (parent1.isLeaf() || parent2.isLeaf()) return parent1;
+
+        PersistentDungeonTree child = parent1.withoutChild(0, random.nextInt(parent1.childCount()));
+
+        // shared with parent2, not copied
+        PersistentDungeonTree toAdd = parent2.getChild(random.nextInt(parent2.childCount()));
+        return child.withChild(0, toAdd);
+    }
+
+// ------------------------- algorithm -------------------------
+    private final MapElitesSettings settings;
+    // archives fed by the same offspring, all checkpointed; the first one is sampled by the metrics log
+    // and returned by run(). A refined archive replaces the coarser one in place
+    private final List<MapElitesArchive> archives;
+    private MapElitesArchive archive;
+    // coarse-to-fine, per archive: refinements still allowed, new cells seen so far and the generation they last grew
+    private final int[] refinementsLeft;
+    private final long[] newCellsSeen;
+    private final int[] growingSince;
+    private final OperatorScheduler scheduler;
+    private final MetricsLog metrics; // null if disabled
+    private final Checkpoint checkpoint; // null if disabled
+    private final Migration migration; // null if disabled
+    // 0, or the generation a resumed run continues from
+    private final int firstGeneration;
+    private final RunBudget budget;
+    // trees whose fitness was computed so far, the initial population included; offspring found in the caches
+    // of every archive are not counted
+    private final LongAdder evaluations = new LongAdder();
+    // generations completed by the main loop
+    private int generationsDone;
+
+    // resume: refill the archive from settings.checkpointDir instead of a random population
+    private MapElites(MapElitesSettings settings, boolean resume) {
+        long startNanos = System.nanoTime();
+        if (settings.getRefinements() > 0 && settings.getBatchSize() == 0 && settings.getThreads() > 1) {
+            throw new IllegalArgumentException("Refinements need a single thread or a batched run");
+        }
+        if (!settings.getEvaluationWorkers().isEmpty() && settings.getBatchSize() == 0) {
+            throw new IllegalArgumentException("Remote evaluation needs a batched run");
+        }
+        this.archives = createArchives(settings);
+        this.refinementsLeft = new int[archives.size()];
+        for (int a = 0; a < archives.size(); a++) {
+            if (archives.get(a).getTessellation() instanceof GridTessellation) {
+                refinementsLeft[a] = settings.getRefinements();
             }
+        }
+        this.archive = archives.get(0);
+        if (resume) {
+            // the checkpoint may have been taken after some refinements
+            int[] cells = Checkpoint.snapshotCells(settings.getCheckpointDir());
+            for (int a = 0; a < Math.min(cells.length, archives.size()); a++) {
+                while (archives.get(a).cellCount() < cells[a] && refinementsLeft[a] > 0) {
+                    archives.set(a, archives.get(a).refine());
+                    refinementsLeft[a]--;
+                }
+            }
+            archive = archives.get(0);
+            Checkpoint.Restored restored = Checkpoint.restore(settings.getCheckpointDir(), archives);
+            settings = settings.toBuilder().seed(restored.seed).build();
+            this.firstGeneration = restored.generation;
         } else {
-            if (rand < 0.35f) {
-                changeRoomType(randomChild);
-            } else if (rand < 0.7f) {
-                addChildNode(randomChild);
-            } else {
-                removeChildNode(randomChild);
+            if (!settings.getSeedArchives().isEmpty()) {
+                evaluations.add(warmStart(archives, settings));
+            }
+            // also when no seed tree fits the descriptor bounds
+            if (archive.occupiedCount() == 0) {
+                evaluations.add(populate(archives, new SplitRandom(settings.getSeed())));
             }
+            this.firstGeneration = 0;
         }
-        return treeCopy;
+        this.settings = settings;
+        this.budget = new RunBudget(archive, startNanos, settings.getTimeBudget(), settings.getConvergenceWindow(),
+                settings.getConvergenceThreshold(), firstGeneration);
+        this.generationsDone = firstGeneration;
+        this.newCellsSeen = new long[archives.size()];
+        this.growingSince = new int[archives.size()];
+        for (int a = 0; a < archives.size(); a++) {
+            newCellsSeen[a] = archives.get(a).newCellCount();
+            growingSince[a] = firstGeneration;
+        }
+        this.scheduler = new OperatorScheduler(settings.isAdaptiveOperators());
+        this.metrics = settings.getMetricsFile() == null
+                ? null
+                : new MetricsLog(archive, evaluations, settings.getMetricsFile(), settings.getMetricsInterval());
+        this.checkpoint = settings.getCheckpointDir() == null
+                ? null
+                : new Checkpoint(settings.getCheckpointDir(), settings.getSeed(), archives,
+                        settings.getCheckpointInterval(), firstGeneration);
+        this.migration = settings.getMigrationDir() == null
+                ? null
+                : new Migration(settings.getMigrationDir(), settings.getIsland(), settings.getSeed(), archive,
+                        checkpoint, settings.getMigrationInterval(), settings.getMigrants(), firstGeneration);
     }
 
-// ------------------------- crossover -------------------------
-    private static DungeonTree crossover(DungeonTree parent1, DungeonTree parent2) {
-        DungeonTree child = parent1.deepCopy();
+    // returns the number of trees evaluated, random duplicates of earlier trees excepted
+    private static int populate(List<MapElitesArchive> archives, Random random) {
+        int evaluated = 0;
+        for (int i = 0; i < BASE_POPULATION; i++) {
+            PersistentDungeonTree tree = MapElitesArchive.randomTree(random);
+            List<Evaluation> evaluations = evaluate(archives, tree, random);
+            for (int a = 0; a < archives.size(); a++) {
+                archives.get(a).commit(evaluations.get(a));
+            }
+            if (!allCached(evaluations)) {
+                evaluated++;
+            }
+        }
+        return evaluated;
+    }
 
-        List<DungeonTree> children1 = new ArrayList<>(child.getChildren());
-        List<DungeonTree> children2 = new ArrayList<>(parent2.getChildren());
+    // true if no archive computed the fitness of the tree, so it cost no evaluation
+    private static boolean allCached(List<Evaluation> evaluations) {
+        for (Evaluation evaluation : evaluations) {
+            if (!evaluation.isCached()) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        if (children1.isEmpty() || children2.isEmpty()) return child;
+    // evaluations of one tree by every archive; fitness components are computed once and shared
+    private static List<Evaluation> evaluate(List<MapElitesArchive> archives, PersistentDungeonTree tree,
+                                             Random random) {
+        EvaluationContext context = new EvaluationContext(tree, random);
+        long treeHash = tree.structuralHash();
+        List<Evaluation> evaluations = new ArrayList<>(archives.size());
+        for (MapElitesArchive target : archives) {
+            evaluations.add(target.evaluate(context, treeHash));
+        }
+        return evaluations;
+    }
 
-        child.removeRandomChild();
+    // uncached evaluations by the archives without a cached one (null in cached), sharing fitness components
+    private static List<Evaluation> evaluateUncached(List<MapElitesArchive> archives, Evaluation[] cached,
+                                                     PersistentDungeonTree tree, long treeHash, Random random) {
+        EvaluationContext context = new EvaluationContext(tree, random);
+        List<Evaluation> evaluations = new ArrayList<>(archives.size());
+        for (int a = 0; a < archives.size(); a++) {
+            evaluations.add(cached[a] != null ? cached[a] : archives.get(a).evaluateUncached(context, treeHash));
+        }
+        return evaluations;
+    }
 
-        DungeonTree toAdd = parent2.getRandomChild();
-        child.addChild(toAdd.deepCopy());
+    // fills the archives with the elites of earlier runs; they are all evaluated in parallel against the empty
+    // archives, then committed in file order, so the result does not depend on the number of threads
+    // returns the number of trees evaluated
+    private static int warmStart(List<MapElitesArchive> archives, MapElitesSettings settings) {
+        List<PersistentDungeonTree> trees = new ArrayList<>();
+        for (File folder : settings.getSeedArchives()) {
+            for (DungeonTree tree : MapElitesArchive.readArchive(folder)) {
+                trees.add(PersistentDungeonTree.of(tree));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(settings.getThreads());
+        try {
+            Evaluation[] noneCached = new Evaluation[archives.size()];
+            List<Future<List<Evaluation>>> evaluations = new ArrayList<>(trees.size());
+            for (int i = 0; i < trees.size(); i++) {
+                PersistentDungeonTree tree = trees.get(i);
+                // negative stream indices never collide with the generations
+                Random random = SplitRandom.stream(settings.getSeed(), -1L - i);
+                evaluations.add(executor.submit(
+                        () -> evaluateUncached(archives, noneCached, tree, tree.structuralHash(), random)));
+            }
+            int inserted = 0;
+            for (Future<List<Evaluation>> evaluation : evaluations) {
+                List<Evaluation> results = await(evaluation);
+                for (int a = 0; a < archives.size(); a++) {
+                    archives.get(a).cacheEvaluation(results.get(a));
+                    Insertion insertion = archives.get(a).commit(results.get(a));
+                    if (a == 0 && insertion.isInserted()) {
+                        inserted++;
+                    }
+                }
+            }
+            System.out.println("Warm start: " + trees.size() + " trees from " + settings.getSeedArchives().size()
+                    + " archives, " + inserted + " inserted, " + archives.get(0).occupiedCount() + " cells filled");
+            return trees.size();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        return child;
+    // generations: number of generations completed so far
+    private void onGenerationsDone(int generations) {
+        if (metrics != null) {
+            metrics.onGeneration(generations);
+        }
+        if (checkpoint != null) {
+            checkpoint.onGeneration(generations);
+        }
+        if (migration != null) {
+            migration.onGeneration(generations);
+        }
+    }
+
+    // coarse-to-fine: a grid archive that found no new cell for refinePatience generations doubles its resolution.
+    // Only called between generations or batches, never while offspring are in flight, so runs stay reproducible
+    private void refineStalled(int generations) {
+        for (int a = 0; a < archives.size(); a++) {
+            if (refinementsLeft[a] == 0) {
+                continue;
+            }
+            MapElitesArchive current = archives.get(a);
+            if (current.newCellCount() != newCellsSeen[a]) {
+                newCellsSeen[a] = current.newCellCount();
+                growingSince[a] = generations;
+            } else if (generations - growingSince[a] >= settings.getRefinePatience()) {
+                MapElitesArchive refined = current.refine();
+                archives.set(a, refined);
+                refinementsLeft[a]--;
+                newCellsSeen[a] = refined.newCellCount();
+                growingSince[a] = generations;
+                int size = ((GridTessellation) refined.getTessellation()).getSize();
+                System.out.println("Generation " + generations + ": archive " + a + " refined to " + size + " x " + size
+                        + ", " + refined.occupiedCount() + " cells filled");
+                if (checkpoint != null) {
+                    checkpoint.onArchiveReplaced(a, refined, generations);
+                }
+                if (a == 0) {
+                    archive = refined;
+                    budget.onArchiveReplaced(refined);
+                    if (metrics != null) {
+                        metrics.onArchiveReplaced(refined);
+                    }
+                    if (migration != null) {
+                        migration.onArchiveReplaced(refined);
+                    }
+                }
+            }
+        }
+    }
+
+    // child with the archive and cells of its parents (-1 if there is no second parent) and the operators that made it
+    @AllArgsConstructor
+    private static final class Offspring {
+        final int generation;
+        final PersistentDungeonTree tree;
+        final int parentArchive;
+        final int parent1;
+        final int parent2;
+        final int variationArm;
+        final Operator.Context mutationContext; // null for crossover
+        final int mutationArm;
     }
 
-// ------------------------- algorithm -------------------------
     public static MapElitesArchive run() {
         return MapElites.run(GENERATIONS_DEFAULT);
     }
 
+    private static List<MapElitesArchive> createArchives(MapElitesSettings settings) {
+        List<MapElitesArchive> archives = new ArrayList<>();
+        if (settings.getArchives().isEmpty()) {
+            archives.add(createArchive(settings));
+        }
+        for (ArchiveDefinition definition : settings.getArchives()) {
+            archives.add(new MapElitesArchive(definition.getTessellation(), definition.fitnessFunction()));
+        }
+        for (MapElitesArchive created : archives) {
+            created.setParentSelection(settings.getParentSelection());
+            created.setElitesPerCell(settings.getElitesPerCell());
+        }
+        return archives;
+    }
+
+    private static MapElitesArchive createArchive(MapElitesSettings settings) {
+        FitnessFunction fitness = (context, toBeat) -> Fitness.fitness(context, true, true, toBeat);
+        MapElitesArchive archive;
+        if (settings.getNiches() > 0) {
+            archive = new MapElitesArchive(
+                    new CvtTessellation(settings.getDescriptors(), settings.getNiches(), CVT_SEED),
+                    fitness
+            );
+        } else {
+            archive = new MapElitesArchive(
+                    Fitness::averageDifficulty,
+                    Fitness::averageReward,
+                    fitness,
+                    0.1f, 0.7f,
+                    0.2f, 0.8f,
+                    settings.getGridSize()
+            );
+        }
+        return archive;
+    }
+
+    // archives take turns providing parents; an archive with no elites yet (e.g. after a resume) lets the first one
+    private int parentArchive(int generation) {
+        int index = generation % archives.size();
+        return archives.get(index).occupiedCount() > 0 ? index : 0;
+    }
+
+    // null if the archive has no parent to breed from
+    private Offspring offspring(int generation, Random random) {
+        int parentArchive = parentArchive(generation);
+        MapElitesArchive source = archives.get(parentArchive);
+        int variationArm = scheduler.choose(Operator.Context.VARIATION, random);
+        if (Operator.Context.VARIATION.getOperators()[variationArm] == Operator.MUTATION) {
+            int parent = source.selectParent(random);
+            if (parent >= 0) {
+                Mutation mutation = mutate(source.getTree(parent), random, scheduler);
+                return new Offspring(generation, mutation.tree, parentArchive, parent, -1, variationArm,
+                        mutation.context, mutation.arm);
+            }
+        } else {
+            int parent1 = source.selectParent(random);
+            int parent2 = source.selectParent(random);
+            if (parent1 >= 0 && parent2 >= 0) {
+                PersistentDungeonTree child = crossover(source.getTree(parent1), source.getTree(parent2), random);
+                return new Offspring(generation, child, parentArchive, parent1, parent2, variationArm, null, -1);
+            }
+        }
+        return null;
+    }
+
+    // evaluations: one per archive, in archive order
+    private void commit(Offspring offspring, List<Evaluation> evaluations) {
+        if (!allCached(evaluations)) {
+            this.evaluations.increment();
+        }
+        Insertion best = Insertion.REJECTED;
+        for (int a = 0; a < archives.size(); a++) {
+            MapElitesArchive target = archives.get(a);
+            Evaluation evaluation = evaluations.get(a);
+            Insertion insertion = target.commit(evaluation);
+            if (checkpoint != null && insertion.isKept()) {
+                checkpoint.onInsertion(offspring.generation, a, evaluation.getCell(),
+                        evaluation.getTree(), evaluation.getFitness());
+            }
+            if (a == offspring.parentArchive) {
+                target.reportOffspring(offspring.parent1, insertion.isImprovement());
+                target.reportOffspring(offspring.parent2, insertion.isImprovement());
+            }
+            best = best.best(insertion);
+        }
+        // an operator is as good as the best use any archive made of its offspring
+        scheduler.reward(Operator.Context.VARIATION, offspring.variationArm, best);
+        if (offspring.mutationContext != null) {
+            scheduler.reward(offspring.mutationContext, offspring.mutationArm, best);
+        }
+    }
+
+    // every generation draws from its own stream of the run seed, whichever thread runs it
+    private void generation(int generation) {
+        Random random = SplitRandom.stream(settings.getSeed(), generation);
+        Offspring offspring = offspring(generation, random);
+        if (offspring != null) {
+            commit(offspring, evaluate(archives, offspring.tree, random));
+        }
+    }
+
+    static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("MAP-Elites run interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("MAP-Elites worker failed", e.getCause());
+        }
+    }
+
     public static MapElitesArchive run(int generations_num) {
-        // -- initialize
-        MapElitesArchive archive = new MapElitesArchive(
-                Fitness::averageDifficulty,
-                Fitness::averageReward,
-                tree -> Fitness.fitness(tree, true, true),
-                0.1f, 0.7f,
-                0.2f, 0.8f
-        );
-        archive.populateArchive(BASE_POPULATION);
+        return run(MapElitesSettings.builder().generations(generations_num).build());
+    }
+
+    public static MapElitesArchive run(int generations_num, int threads) {
+        return run(MapElitesSettings.builder().generations(generations_num).threads(threads).build());
+    }
+
+    public static MapElitesArchive run(int generations_num, int threads, long seed) {
+        return run(MapElitesSettings.builder().generations(generations_num).threads(threads).seed(seed).build());
+    }
+
+    public static MapElitesArchive runBatched(int generations_num, int batchSize, int threads) {
+        return run(MapElitesSettings.builder().generations(generations_num).batchSize(batchSize).threads(threads).build());
+    }
+
+    public static MapElitesArchive runBatched(int generations_num, int batchSize, int threads, long seed) {
+        return run(MapElitesSettings.builder()
+                .generations(generations_num).batchSize(batchSize).threads(threads).seed(seed)
+                .build());
+    }
+
+    // runs until the time budget is spent, whatever the number of generations
+    public static MapElitesArchive run(Duration timeBudget) {
+        return run(MapElitesSettings.builder().generations(Integer.MAX_VALUE).timeBudget(timeBudget).build());
+    }
+
+    public static MapElitesArchive run(MapElitesSettings settings) {
+        return new MapElites(settings, false).execute();
+    }
+
+    // one archive, as the run of these settings would create it, holding the elites of several archive folders
+    // (e.g. one per island) with their stored fitness; nothing is evaluated again
+    public static MapElitesArchive merge(MapElitesSettings settings, List<File> archiveFolders) {
+        MapElitesArchive merged = createArchives(settings).get(0);
+        for (File folder : archiveFolders) {
+            int inserted = merged.mergeArchive(folder);
+            System.out.println("Merged " + folder + ": " + inserted + " inserted, " + merged.occupiedCount()
+                    + " cells filled");
+        }
+        return merged;
+    }
+
+    // one run feeding every archive of settings.archives, returned in the same order;
+    // each offspring is bred once and its fitness components are computed once for all archives
+    public static List<MapElitesArchive> runAll(MapElitesSettings settings) {
+        MapElites run = new MapElites(settings, false);
+        run.execute();
+        return run.archives;
+    }
+
+    /**
+     * Continues the run checkpointed in settings.checkpointDir up to settings.generations.
+     * The seed comes from the checkpoint; the other settings may differ from the interrupted run.
+     */
+    public static MapElitesArchive resume(MapElitesSettings settings) {
+        return new MapElites(settings, true).execute();
+    }
+
+    // resume for a run of several archives, returned as runAll does; settings.archives must match the checkpoint
+    public static List<MapElitesArchive> resumeAll(MapElitesSettings settings) {
+        MapElites run = new MapElites(settings, true);
+        run.execute();
+        return run.archives;
+    }
+
+    private MapElitesArchive execute() {
+        onGenerationsDone(firstGeneration);
         // -- main loop
-        for (int generation = 0; generation < generations_num; generation++) {
-            float rand = (float)Math.random();
-            if (rand < 0.4f) {
-                // mutation
-                DungeonTree parent = archive.getRandomTree();
-                if (parent != null) {
-                    DungeonTree child = mutate(parent);
-                    archive.addToArchive(child);
-                }
+        try {
+            if (settings.getBatchSize() > 0) {
+                runBatched();
+            } else if (settings.getThreads() > 1) {
+                runConcurrent();
             } else {
-                // crossover
-                DungeonTree parent1 = archive.getRandomTree();
-                DungeonTree parent2 = archive.getRandomTree();
-                if (parent1 != null && parent2 != null) {
-                    DungeonTree child = crossover(parent1, parent2);
-                    archive.addToArchive(child);
+                for (int generation = firstGeneration; generation < settings.getGenerations(); generation++) {
+                    generation(generation);
+                    if (settings.getRefinements() > 0) {
+                        refineStalled(generation + 1);
+                    }
+                    generationsDone = generation + 1;
+                    onGenerationsDone(generation + 1);
+                    if (budget.shouldStop(generation + 1)) {
+                        break;
+                    }
                 }
             }
+            if (metrics != null) {
+                metrics.finish(generationsDone);
+            }
+            if (checkpoint != null) {
+                checkpoint.finish(generationsDone);
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.close();
+            }
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
+        if (settings.isAdaptiveOperators()) {
+            System.out.print("Operators:\n" + scheduler.summary());
+        }
+        if (migration != null) {
+            System.out.println(migration.summary());
+        }
+        if (budget.getStopReason() != null) {
+            System.out.printf("Stopped after %d generations, %d evaluations, %.1fs: %s%n",
+                    generationsDone, evaluations.sum(), budget.elapsedSeconds(), budget.getStopReason());
+        }
+        for (MapElitesArchive result : archives) {
+            result.setRunStatistics(generationsDone, evaluations.sum());
         }
         return archive;
     }
 
+    // generations are shared between worker threads that insert into one archive as soon as they are evaluated;
+    // unlike the single-threaded and batched runs, the result depends on thread timing
+    private void runConcurrent() {
+        AtomicInteger nextGeneration = new AtomicInteger(firstGeneration);
+        AtomicInteger completed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(settings.getThreads());
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < settings.getThreads(); i++) {
+                workers.add(executor.submit(() -> {
+                    int generation;
+                    while ((generation = nextGeneration.getAndIncrement()) < settings.getGenerations()) {
+                        generation(generation);
+                        completed.incrementAndGet();
+                        onGenerationsDone(generation + 1);
+                        if (budget.shouldStop(generation + 1)) {
+                            break;
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                await(worker);
+            }
+            generationsDone = firstGeneration + completed.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // fitness components computed by a remote worker, then combined here with the descriptors and fitness function
+    // of each archive; the worker continues the generation's random stream, so the result is the local one
+    private CompletableFuture<List<Evaluation>> evaluateRemotely(RemoteEvaluator remote, Evaluation[] cached,
+                                                                 PersistentDungeonTree tree, long treeHash,
+                                                                 SplitRandom random) {
+        long randomState = random.getState();
+        // the default fitness skips the layout check of a tree that cannot beat its cell;
+        // archive definitions may need it whatever the bound
+        float layoutBound = settings.getArchives().isEmpty() ? archive.toBeat(tree) : Float.NEGATIVE_INFINITY;
+        return remote.submit(tree, randomState, layoutBound).thenApply(components -> {
+            EvaluationContext context = new EvaluationContext(tree, new SplitRandom(randomState),
+                    components[0], components[1], components[2]);
+            List<Evaluation> evaluations = new ArrayList<>(archives.size());
+            for (int a = 0; a < archives.size(); a++) {
+                evaluations.add(cached[a] != null ? cached[a] : archives.get(a).evaluateUncached(context, treeHash));
+            }
+            return evaluations;
+        });
+    }
+
+    // offspring of one batch are bred from the same archive state and evaluated in parallel (by the local threads
+    // or remote workers), then committed in the order they were created, so the result depends only on the seed
+    // and batch size
+    private void runBatched() {
+        int generations = settings.getGenerations();
+        int batchSize = settings.getBatchSize();
+        ExecutorService executor = Executors.newFixedThreadPool(settings.getThreads());
+        RemoteEvaluator remote = settings.getEvaluationWorkers().isEmpty()
+                ? null
+                : new RemoteEvaluator(settings.getEvaluationWorkers());
+        try {
+            for (int generation = firstGeneration; generation < generations; generation += batchSize) {
+                int currentBatchSize = Math.min(batchSize, generations - generation);
+                // cache lookups and updates stay on this thread, in creation order, to keep runs reproducible
+                List<Offspring> offsprings = new ArrayList<>(currentBatchSize);
+                List<Future<List<Evaluation>>> batch = new ArrayList<>(currentBatchSize);
+                List<Evaluation[]> fromCache = new ArrayList<>(currentBatchSize);
+                for (int i = 0; i < currentBatchSize; i++) {
+                    SplitRandom random = SplitRandom.stream(settings.getSeed(), generation + i);
+                    Offspring offspring = offspring(generation + i, random);
+                    if (offspring == null) {
+                        continue;
+                    }
+                    PersistentDungeonTree child = offspring.tree;
+                    long treeHash = child.structuralHash();
+                    Evaluation[] cached = new Evaluation[archives.size()];
+                    boolean allCached = true;
+                    for (int a = 0; a < archives.size(); a++) {
+                        cached[a] = archives.get(a).cachedEvaluation(child, treeHash);
+                        allCached &= cached[a] != null;
+                    }
+                    if (allCached) {
+                        batch.add(CompletableFuture.completedFuture(Arrays.asList(cached)));
+                    } else if (remote != null) {
+                        batch.add(evaluateRemotely(remote, cached, child, treeHash, random));
+                    } else {
+                        batch.add(executor.submit(() -> evaluateUncached(archives, cached, child, treeHash, random)));
+                    }
+                    offsprings.add(offspring);
+                    fromCache.add(cached);
+                }
+                // the whole batch is evaluated against the same elites before anything is committed
+                List<List<Evaluation>> evaluations = new ArrayList<>(batch.size());
+                for (Future<List<Evaluation>> evaluation : batch) {
+                    evaluations.add(await(evaluation));
+                }
+                for (int i = 0; i < evaluations.size(); i++) {
+                    for (int a = 0; a < archives.size(); a++) {
+                        if (fromCache.get(i)[a] == null) {
+                            archives.get(a).cacheEvaluation(evaluations.get(i).get(a));
+                        }
+                    }
+                    commit(offsprings.get(i), evaluations.get(i));
+                }
+                if (settings.getRefinements() > 0) {
+                    refineStalled(generation + currentBatchSize);
+                }
+                generationsDone = generation + currentBatchSize;
+                onGenerationsDone(generation + currentBatchSize);
+                if (budget.shouldStop(generation + currentBatchSize)) {
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (remote != null) {
+                remote.close();
+            }
+        }
+    }
+
     public static void main(String[] args) {
-        int numGenerations = 1_000_000;
-        MapElitesArchive res = MapElites.run(numGenerations);
+        File outputDir = new File("levels", MapElitesArchive.nowAsDirName());
+        MapElitesSettings settings = MapElitesSettings.builder()
+                .generations(1_000_000)
+                .threads(Runtime.getRuntime().availableProcessors())
+                .metricsFile(new File(outputDir, "metrics.jsonl"))
+                .build();
+        System.out.println("Seed: " + settings.getSeed());
+        System.out.println("Metrics: " + settings.getMetricsFile());
+        MapElitesArchive res = MapElites.run(settings);
         res.print();
-        res.serializeArchive(numGenerations);
+        res.serializeArchive(res.getGenerationsRun(), outputDir);
     }
 }
@@ -3,39 +3,69 @@ package com.codingame.game.algorithm;
 import com.codingame.game.Constants;
 import com.codingame.game.tree.DungeonTree;
 import com.codingame.game.tree.DungeonTreeSerializer;
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import com.codingame.game.tree.PersistentDungeonTree;
+import com.codingame.game.tree.TreeStatistics;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
-
-@Data
-@AllArgsConstructor
-class ArchiveRecord {
-    DungeonTree tree;
-    float fitness;
-}
+import java.util.regex.Pattern;
 
 public class MapElitesArchive {
     private static final int DEFAULT_SIZE = 10;
-    private final Function<DungeonTree, Float> xAxisFunction;
-    private final Function<DungeonTree, Float> yAxisFunction;
-    private final Function<DungeonTree, Float> fitnessFunction;
-
-    private final float min_x;
-    private final float max_x;
-    private final float min_y;
-    private final float max_y;
-    private final ArchiveRecord[][] archive;
-    private int size;
+    private static final int CACHE_SIZE = 100_000;
+    private static final int OVERFLOW_SIZE = 10_000;
+    // lowest fitness of a valid tree, for the level queries
+    private static final float VALID = Float.MIN_VALUE;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // elite files of grid and CVT archives, with the extra elites of a cell as _v01, _v02...
+    private static final Pattern ELITE_FILE = Pattern.compile("(x_\\d+_y_\\d+|cell_\\d+)(_v\\d+)?\\.json");
+    private final Tessellation tessellation;
+    private final FitnessFunction fitnessFunction;
+
+    // one slot per cell of the tessellation; every cell is replaced with a single compare-and-set,
+    // so concurrent workers never block each other on insertion
+    private final AtomicReferenceArray<ArchiveRecord> archive;
+    // filled cells, and cells whose elite has fitness > 0, for O(1) random selection
+    private final CellIndex occupiedCells;
+    private final CellIndex validCells;
+    private final OverflowPool overflow = new OverflowPool(OVERFLOW_SIZE);
+    // the k best distinct valid trees of every cell, the elite included; null when only the elite is kept
+    private EliteHeap[] elites = null;
+    private ParentSelection parentSelection = ParentSelection.UNIFORM;
+    // null for uniform parent selection, which only needs occupiedCells
+    private WeightedParentSelector parentSelector = null;
+    // offspring often repeat trees that were already evaluated
+    private final EvaluationCache cache = new EvaluationCache(CACHE_SIZE);
+    // outcomes of every commit, sampled by MetricsLog
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder newCells = new LongAdder();
+    private final LongAdder improvements = new LongAdder();
+    // incremented by every change of the kept trees, so the query index knows when it is stale
+    private final AtomicLong version = new AtomicLong();
+    private EliteIndex index = null;
+    private long indexVersion = -1;
+    // set by MapElites when the run that produced this archive ends
+    private int generationsRun = 0;
+    private long evaluationsRun = 0;
 
     public MapElitesArchive(
-            Function<DungeonTree, Float> xAxisFunction,
-            Function<DungeonTree, Float> yAxisFunction,
-            Function<DungeonTree, Float> fitnessFunction,
+            Function<TreeStatistics, Float> xAxisFunction,
+            Function<TreeStatistics, Float> yAxisFunction,
+            FitnessFunction fitnessFunction,
             float min_x, float max_x, float min_y, float max_y
     ) {
         this(
@@ -48,114 +78,485 @@ public class MapElitesArchive {
     }
 
     public MapElitesArchive(
-            Function<DungeonTree, Float> xAxisFunction,
-            Function<DungeonTree, Float> yAxisFunction,
-            Function<DungeonTree, Float> fitnessFunction,
+            Function<TreeStatistics, Float> xAxisFunction,
+            Function<TreeStatistics, Float> yAxisFunction,
+            FitnessFunction fitnessFunction,
             float min_x, float max_x, float min_y, float max_y,
             int size
     ) {
-        this.size = size;
-        archive = new ArchiveRecord[size][size];
-        this.xAxisFunction = xAxisFunction;
-        this.yAxisFunction = yAxisFunction;
+        this(new GridTessellation(xAxisFunction, yAxisFunction, min_x, max_x, min_y, max_y, size), fitnessFunction);
+    }
+
+    public MapElitesArchive(Tessellation tessellation, FitnessFunction fitnessFunction) {
+        this.tessellation = tessellation;
         this.fitnessFunction = fitnessFunction;
-        this.max_x = max_x;
-        this.min_x = min_x;
-        this.max_y = max_y;
-        this.min_y = min_y;
+        int cells = tessellation.cellCount();
+        archive = new AtomicReferenceArray<>(cells);
+        occupiedCells = new CellIndex(cells);
+        validCells = new CellIndex(cells);
+    }
+
+    // must be chosen before the archive is populated
+    public void setParentSelection(ParentSelection selection) {
+        if (occupiedCells.size() > 0) {
+            throw new IllegalStateException("Parent selection must be set on an empty archive");
+        }
+        parentSelection = selection;
+        parentSelector = selection == ParentSelection.UNIFORM ? null : new WeightedParentSelector(selection, tessellation);
+    }
+
+    // keeps the k best structurally distinct valid trees per cell besides serving the single elite;
+    // must be chosen before the archive is populated
+    public void setElitesPerCell(int k) {
+        if (occupiedCells.size() > 0) {
+            throw new IllegalStateException("Elites per cell must be set on an empty archive");
+        }
+        if (k < 1) {
+            throw new IllegalArgumentException("Elites per cell must be at least 1: " + k);
+        }
+        if (k == 1) {
+            elites = null;
+            return;
+        }
+        elites = new EliteHeap[archive.length()];
+        for (int cell = 0; cell < elites.length; cell++) {
+            elites[cell] = new EliteHeap(k);
+        }
+    }
+
+    public int getElitesPerCell() {
+        return elites == null ? 1 : elites[0].k();
     }
 
     public void populateArchive(int numIndividuals) {
+        populateArchive(numIndividuals, ThreadLocalRandom.current());
+    }
+
+    public void populateArchive(int numIndividuals, Random random) {
         for (int i = 0; i < numIndividuals; i++) {
-            DungeonTree tree = new DungeonTree();
-            tree.generateRandomTree(
-                    (int) (Constants.MIN_DEPTH + Math.random() * (Constants.MAX_DEPTH - Constants.MIN_DEPTH)),
-                    (float) (0.25 + Math.random() * 0.5),
-                    (float) (0.5 + Math.random() * 0.5)
-            );
-            addToArchive(tree);
+            addToArchive(randomTree(random), random);
         }
     }
 
-    private int mapToIndex(float value, float min, float max) {
-        if (value < min || value > max) {
-            return -1; // outside archive bounds
+    // a tree of the initial population
+    static PersistentDungeonTree randomTree(Random random) {
+        DungeonTree tree = new DungeonTree(random);
+        tree.generateRandomTree(
+                (int) (Constants.MIN_DEPTH + random.nextDouble() * (Constants.MAX_DEPTH - Constants.MIN_DEPTH)),
+                (float) (0.25 + random.nextDouble() * 0.5),
+                (float) (0.5 + random.nextDouble() * 0.5),
+                random
+        );
+        return PersistentDungeonTree.of(tree);
+    }
+
+    // null if the archive is not a grid
+    private GridTessellation grid() {
+        return tessellation instanceof GridTessellation ? (GridTessellation) tessellation : null;
+    }
+
+    private ArchiveRecord recordAt(int xIndex, int yIndex) {
+        return archive.get(grid().cell(xIndex, yIndex));
+    }
+
+    public Tessellation getTessellation() {
+        return tessellation;
+    }
+
+    // computes descriptors and fitness without changing the archive or the cache;
+    // fitness may be Fitness.PRUNED when the tree cannot beat the elite of its cell
+    Evaluation evaluateUncached(EvaluationContext context, long treeHash) {
+        PersistentDungeonTree tree = context.getTree();
+        float[] descriptor = tessellation.describe(tree);
+        int cell = tessellation.cellOf(descriptor);
+        if (cell < 0) {
+            return new Evaluation(tree, treeHash, descriptor, -1, 0f);
         }
-        float normalized = (value - min) / (max - min); // [0,1]
-        int index = (int) (normalized * size);
-        return Math.min(index, size - 1);
+        return new Evaluation(tree, treeHash, descriptor, cell, fitnessFunction.apply(context, toBeat(cell)));
     }
 
-    void addToArchive(DungeonTree tree) {
-        float xValue = xAxisFunction.apply(tree);
-        float yValue = yAxisFunction.apply(tree);
+    // fitness a tree must reach to enter cell; with k elites per cell, only the worst of them has to be beaten
+    private float toBeat(int cell) {
+        ArchiveRecord elite = archive.get(cell);
+        return elites != null ? elites[cell].threshold()
+                : elite == null ? Float.NEGATIVE_INFINITY : elite.getFitness();
+    }
 
-        int xIndex = mapToIndex(xValue, min_x, max_x);
-        int yIndex = mapToIndex(yValue, min_y, max_y);
+    // fitness the tree must reach in its cell, known before it is evaluated (e.g. to bound a remote evaluation);
+    // positive infinity if it falls outside the archive, where its fitness is never computed
+    float toBeat(PersistentDungeonTree tree) {
+        int cell = tessellation.cellOf(tessellation.describe(tree));
+        return cell < 0 ? Float.POSITIVE_INFINITY : toBeat(cell);
+    }
 
-        if (xIndex < 0 || yIndex < 0) {
-            return;
+    // evaluation of a structurally identical tree seen recently, re-attached to this tree; null on miss
+    Evaluation cachedEvaluation(PersistentDungeonTree tree, long treeHash) {
+        Evaluation cached = cache.get(tree, treeHash);
+        return cached == null ? null : cached.cachedFor(tree);
+    }
+
+    void cacheEvaluation(Evaluation evaluation) {
+        cache.put(evaluation);
+    }
+
+    Evaluation evaluate(PersistentDungeonTree tree, Random random) {
+        return evaluate(new EvaluationContext(tree, random), tree.structuralHash());
+    }
+
+    Evaluation evaluate(EvaluationContext context, long treeHash) {
+        Evaluation evaluation = cachedEvaluation(context.getTree(), treeHash);
+        if (evaluation == null) {
+            evaluation = evaluateUncached(context, treeHash);
+            cacheEvaluation(evaluation);
         }
+        return evaluation;
+    }
 
-        ArchiveRecord existingRecord = archive[xIndex][yIndex];
-        float newQuality = fitnessFunction.apply(tree);
+    // safe to call from many threads at once
+    Insertion commit(Evaluation evaluation) {
+        commits.increment();
+        if (!evaluation.isInBounds()) {
+            return Insertion.REJECTED;
+        }
 
-        if (existingRecord == null ||
-                newQuality >= existingRecord.getFitness()) {
-            archive[xIndex][yIndex] = new ArchiveRecord(tree, newQuality);
+        int cell = evaluation.getCell();
+        float newQuality = evaluation.getFitness();
+        ArchiveRecord current = archive.get(cell);
+        if (current != null && evaluation.getTree().structurallyEquals(current.getTree())) {
+            return Insertion.REJECTED; // e.g. a mutation that changed nothing; the elite stays as it is
+        }
+        ArchiveRecord newRecord = null;
+        boolean variant = elites != null && newQuality > 0.0f
+                && elites[cell].offer(evaluation.getTree(), evaluation.getTreeHash(), newQuality, evaluation.getDescriptor());
+        if (variant) {
+            version.incrementAndGet();
+        }
+
+        // retry only if another worker replaced the same cell in the meantime
+        while (true) {
+            ArchiveRecord existingRecord = archive.get(cell);
+            if (existingRecord != null && newQuality < existingRecord.getFitness()) {
+                if (newQuality > 0.0f) {
+                    overflow.add(new ArchiveRecord(evaluation.getTree(), newQuality, evaluation.getDescriptor()));
+                }
+                return variant ? Insertion.VARIANT : Insertion.REJECTED;
+            }
+            if (newRecord == null) {
+                newRecord = new ArchiveRecord(evaluation.getTree(), newQuality, evaluation.getDescriptor());
+            }
+            if (archive.compareAndSet(cell, existingRecord, newRecord)) {
+                version.incrementAndGet();
+                // a tie displaces an equally fit elite, often the same rooms in another order: not worth a slot
+                if (existingRecord != null && existingRecord.getFitness() > 0.0f
+                        && newQuality > existingRecord.getFitness()) {
+                    overflow.add(existingRecord);
+                }
+                // only the winning compare-and-set sees each transition, so every cell is indexed once
+                if (existingRecord == null) {
+                    occupiedCells.add(cell);
+                }
+                if (newQuality > 0.0f && (existingRecord == null || existingRecord.getFitness() <= 0.0f)) {
+                    validCells.add(cell);
+                }
+                if (existingRecord != null && newQuality == existingRecord.getFitness()) {
+                    return Insertion.REPLACED; // a tie takes the cell, as it always did, but improves nothing
+                }
+                if (parentSelector != null) {
+                    parentSelector.onInserted(cell, newQuality);
+                }
+                if (existingRecord == null) {
+                    newCells.increment();
+                    return Insertion.NEW_CELL;
+                }
+                improvements.increment();
+                return Insertion.IMPROVED;
+            }
         }
     }
 
-     public DungeonTree getRandomTree() {
-        int xIndex = (int)(Math.random() * size);
-        int yIndex = (int)(Math.random() * size);
-        ArchiveRecord rec = archive[xIndex][yIndex];
-        if (rec != null) {
-            return rec.getTree();
+    // evaluation of a tree whose fitness was computed elsewhere (another island, a merged archive); only its
+    // descriptors are computed, so it lands in the right cell of this tessellation
+    Evaluation evaluated(PersistentDungeonTree tree, float fitness) {
+        float[] descriptor = tessellation.describe(tree);
+        return new Evaluation(tree, tree.structuralHash(), descriptor, tessellation.cellOf(descriptor), fitness);
+    }
+
+    // commits a tree whose fitness was computed elsewhere without evaluating it again
+    Insertion insertEvaluated(PersistentDungeonTree tree, float fitness) {
+        return commit(evaluated(tree, fitness));
+    }
+
+    // puts back an elite read from a checkpoint, with the fitness it was stored with
+    Insertion restore(int cell, PersistentDungeonTree tree, float fitness) {
+        if (cell < 0 || cell >= archive.length()) {
+            throw new IllegalArgumentException("Cell " + cell + " is outside the archive");
         }
-        return getRandomTree();
+        return commit(new Evaluation(tree, tree.structuralHash(), tessellation.describe(tree), cell, fitness));
     }
 
-    public DungeonTree getRandomGoodTree() {
-        int width = archive.length;
-        int height = archive[0].length;
+    // puts back a non-elite tree of a cell's heap read from a checkpoint, without touching the elite or the pool
+    void restoreVariant(int cell, PersistentDungeonTree tree, float fitness) {
+        if (elites == null) {
+            throw new IllegalStateException("The archive keeps a single elite per cell");
+        }
+        if (elites[cell].offer(tree, tree.structuralHash(), fitness, tessellation.describe(tree))) {
+            version.incrementAndGet();
+        }
+    }
 
-        int startX = (int)(Math.random() * width);
-        int startY = (int)(Math.random() * height);
+    // puts back an overflow pool entry read from a checkpoint; call in the order records() returned them
+    void restoreOverflow(PersistentDungeonTree tree, float fitness) {
+        overflow.add(new ArchiveRecord(tree, fitness, tessellation.describe(tree)));
+    }
 
-        for (int dy = 0; dy < height; dy++) {
-            for (int dx = 0; dx < width; dx++) {
-                int x = (startX + dx) % width;
-                int y = (startY + dy) % height;
+    // the trees of a cell's heap other than its elite, for checkpoints; empty with a single elite per cell
+    List<ArchiveRecord> variantRecords(int cell) {
+        if (elites == null) {
+            return Collections.emptyList();
+        }
+        ArchiveRecord elite = archive.get(cell);
+        List<ArchiveRecord> variants = new ArrayList<>();
+        for (ArchiveRecord rec : elites[cell].records()) {
+            if (elite == null || rec.getTree() != elite.getTree()) {
+                variants.add(rec);
+            }
+        }
+        return variants;
+    }
 
-                ArchiveRecord rec = archive[x][y];
-                if (rec != null && rec.getFitness() > 0.0f) {
-                    System.out.println("Selected tree at (" + x + ", " + y + ") with fitness " + rec.getFitness());
-                    return rec.getTree();
-                }
+    // oldest first, for checkpoints
+    List<ArchiveRecord> overflowRecords() {
+        return overflow.records();
+    }
+
+    /**
+     * The elites and overflow pool of this archive binned into another tessellation, using the stored descriptors
+     * and fitness, so nothing is evaluated again. The tessellation must measure the same descriptors in the same
+     * order. Trees outside its bounds go to the overflow pool of the new archive, so they come back if its bounds
+     * are widened again. Offspring pruned against the elite of their cell never had their fitness computed, so
+     * they are not in the pool and cannot fill the new cells (see OverflowPool).
+     */
+    public MapElitesArchive rebin(Tessellation tessellation) {
+        if (tessellation.dimensions() != this.tessellation.dimensions()) {
+            throw new IllegalArgumentException("Cannot rebin " + this.tessellation.dimensions()
+                    + " descriptors into " + tessellation.dimensions());
+        }
+        MapElitesArchive rebinned = new MapElitesArchive(tessellation, fitnessFunction);
+        rebinned.setParentSelection(parentSelection);
+
+        List<ArchiveRecord> records = new ArrayList<>(occupiedCount() + overflow.size());
+        for (int slot = 0; slot < occupiedCount(); slot++) {
+            records.add(archive.get(occupiedCell(slot)));
+        }
+        records.addAll(overflow.records());
+        if (elites != null) {
+            rebinned.setElitesPerCell(getElitesPerCell());
+            for (int slot = 0; slot < occupiedCount(); slot++) {
+                records.addAll(elites[occupiedCell(slot)].records());
             }
         }
+        for (ArchiveRecord rec : records) {
+            int cell = tessellation.cellOf(rec.getDescriptor());
+            if (cell >= 0) {
+                rebinned.commit(new Evaluation(rec.getTree(), rec.getTree().structuralHash(),
+                        rec.getDescriptor(), cell, rec.getFitness()));
+            } else if (rec.getFitness() > 0.0f) {
+                rebinned.overflow.add(rec);
+            }
+        }
+        return rebinned;
+    }
 
-        System.out.println("No good tree found in archive.");
-        return null;
+    // grid archives only: the same axes with other bounds or resolution
+    public MapElitesArchive rebin(float min_x, float max_x, float min_y, float max_y, int size) {
+        GridTessellation grid = grid();
+        if (grid == null) {
+            throw new UnsupportedOperationException("Bounds can only be changed on a grid archive");
+        }
+        return rebin(new GridTessellation(grid.getXAxisFunction(), grid.getYAxisFunction(),
+                min_x, max_x, min_y, max_y, size));
+    }
+
+    // grid archives only: the same bounds with twice the resolution, every cell split in four; the elites and
+    // overflow pool move to the finer cells, so most of them start with a parent to breed from
+    public MapElitesArchive refine() {
+        GridTessellation grid = grid();
+        if (grid == null) {
+            throw new UnsupportedOperationException("Only a grid archive can be refined");
+        }
+        return rebin(grid.getMin_x(), grid.getMax_x(), grid.getMin_y(), grid.getMax_y(), grid.getSize() * 2);
     }
 
+    Insertion addToArchive(PersistentDungeonTree tree, Random random) {
+        return commit(evaluate(tree, random));
+    }
 
+    // cell of a parent chosen by the configured selection strategy; -1 if the archive is empty
+    int selectParent(Random random) {
+        if (parentSelector != null) {
+            return parentSelector.select(random);
+        }
+        int filled = occupiedCells.size();
+        return filled == 0 ? -1 : occupiedCells.get(random.nextInt(filled));
+    }
+
+    PersistentDungeonTree getTree(int cell) {
+        return archive.get(cell).getTree();
+    }
+
+    // lets the selection strategy learn which parents produce offspring that enter the archive
+    void reportOffspring(int parentCell, boolean inserted) {
+        if (parentSelector != null) {
+            parentSelector.onOffspring(parentCell, inserted);
+        }
+    }
+
+    // the public getters return linked copies of the stored trees, which callers may edit freely
+
+    // uniformly chosen elite; null if the archive is empty
+    public DungeonTree getRandomTree(Random random) {
+        int filled = occupiedCells.size();
+        if (filled == 0) {
+            return null;
+        }
+        return archive.get(occupiedCells.get(random.nextInt(filled))).getTree().toDungeonTree();
+    }
+
+    public DungeonTree getRandomGoodTree() {
+        return getRandomGoodTree(ThreadLocalRandom.current());
+    }
+
+    public DungeonTree getRandomGoodTree(Random random) {
+        int valid = validCells.size();
+        if (valid == 0) {
+            System.out.println("No good tree found in archive.");
+            return null;
+        }
+
+        int cell = validCells.get(random.nextInt(valid));
+        ArchiveRecord rec = archive.get(cell);
+        System.out.println("Selected tree at " + tessellation.cellName(cell) + " with fitness " + rec.getFitness());
+        return rec.getTree().toDungeonTree();
+    }
+
+    // the best distinct trees of a cell, best first: up to elitesPerCell valid trees, or the single elite
+    List<ArchiveRecord> eliteRecords(int cell) {
+        if (elites != null && elites[cell].size() > 0) {
+            return elites[cell].records();
+        }
+        ArchiveRecord rec = archive.get(cell);
+        return rec == null ? Collections.<ArchiveRecord>emptyList() : Collections.singletonList(rec);
+    }
+
+    // grid archives only; best first, empty if the cell was never filled
+    public List<DungeonTree> getTreesAt(int xIndex, int yIndex) {
+        getTreeAt(xIndex, yIndex); // checks the grid and bounds
+        List<DungeonTree> trees = new ArrayList<>();
+        for (ArchiveRecord rec : eliteRecords(grid().cell(xIndex, yIndex))) {
+            trees.add(rec.getTree().toDungeonTree());
+        }
+        return trees;
+    }
+
+    // grid archives only
     public DungeonTree getTreeAt(int xIndex, int yIndex) {
+        GridTessellation grid = grid();
+        if (grid == null) {
+            throw new UnsupportedOperationException("getTreeAt(x, y) needs a grid archive");
+        }
+        int size = grid.getSize();
         if (xIndex < 0 || xIndex >= size || yIndex < 0 || yIndex >= size) {
             throw new IndexOutOfBoundsException("Index out of bounds for archive");
         }
-        ArchiveRecord rec = archive[xIndex][yIndex];
+        ArchiveRecord rec = recordAt(xIndex, yIndex);
         if (rec != null) {
-            return rec.getTree();
+            return rec.getTree().toDungeonTree();
         }
         return null;
     }
 
+    // generations actually run, which may be fewer than requested with a time budget or convergence
+    public int getGenerationsRun() {
+        return generationsRun;
+    }
+
+    // trees whose fitness the run computed, initial population and warm start included; offspring whose
+    // evaluations all came from the caches are not counted, see cacheHitRate
+    public long getEvaluationsRun() {
+        return evaluationsRun;
+    }
+
+    void setRunStatistics(int generations, long evaluations) {
+        generationsRun = generations;
+        evaluationsRun = evaluations;
+    }
+
+    public float cacheHitRate() {
+        return cache.hitRate();
+    }
+
+    // ------ read access for MetricsLog and Checkpoint ------
+    int cellCount() {
+        return archive.length();
+    }
+
+    int occupiedCount() {
+        return occupiedCells.size();
+    }
+
+    int validCount() {
+        return validCells.size();
+    }
+
+    int overflowCount() {
+        return overflow.size();
+    }
+
+    // cells in the order they were first filled, slot < occupiedCount()
+    int occupiedCell(int slot) {
+        return occupiedCells.get(slot);
+    }
+
+    // null if the cell is empty
+    ArchiveRecord record(int cell) {
+        return archive.get(cell);
+    }
+
+    // NaN if the cell is empty
+    float eliteFitness(int cell) {
+        ArchiveRecord rec = archive.get(cell);
+        return rec == null ? Float.NaN : rec.getFitness();
+    }
+
+    long commitCount() {
+        return commits.sum();
+    }
+
+    long newCellCount() {
+        return newCells.sum();
+    }
+
+    long improvementCount() {
+        return improvements.sum();
+    }
+
+    long cacheHits() {
+        return cache.getHits();
+    }
+
+    long cacheLookups() {
+        return cache.getLookups();
+    }
+
     public void print() {
+        // only a grid can be drawn
+        int size = grid() == null ? 0 : grid().getSize();
+        if (size == 0) {
+            System.out.printf("Niches filled: %d / %d, valid: %d%n", occupiedCount(), cellCount(), validCount());
+        }
         for (int y = size - 1; y >= 0; y--) {
             for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
+                ArchiveRecord rec = recordAt(x, y);
                 if (rec != null) {
                     System.out.printf("[%.2f] ", rec.getFitness());
                 } else {
@@ -164,10 +565,12 @@ public class MapElitesArchive {
             }
             System.out.println();
         }
+        System.out.printf("Fitness cache hit rate: %.1f%% (%d / %d)%n",
+                100.0 * cache.hitRate(), cache.getHits(), cache.getLookups());
     }
 
 //    ----------- serialization --------------
-    private static String nowAsDirName() {
+    static String nowAsDirName() {
         DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
         return LocalDateTime.now().format(fmt);
     }
@@ -177,44 +580,63 @@ public class MapElitesArchive {
 
         sb.append("Generations: ").append(generationCount).append("\n");
         sb.append("Fitness: ").append("quality-control").append("\n");
-        sb.append("X function: ").append("difficulty").append("\n");
-        sb.append("X bounds: ").append("min: ").append(min_x).append(" max: ").append(max_x).append("\n");
-        sb.append("Y function: ").append("reward").append("\n");
-        sb.append("Y bounds: ").append("min: ").append(min_y).append(" max: ").append(max_y).append("\n");
-        sb.append("Buckets: ").append(size * size).append(" (").append(size).append(" per line)\n");
+        sb.append(tessellation.info());
 
+        int cells = cellCount();
         int filledBuckets = 0;
         int validBuckets = 0;
 
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
-                if (rec != null) {
-                    filledBuckets++;
-                    if (rec.getFitness() > 0.0) {
-                        validBuckets++;
-                    }
+        for (int cell = 0; cell < cells; cell++) {
+            ArchiveRecord rec = archive.get(cell);
+            if (rec != null) {
+                filledBuckets++;
+                if (rec.getFitness() > 0.0) {
+                    validBuckets++;
                 }
             }
         }
 
-        double filledPercent = 100.0 * filledBuckets / (size * size);
-        double validPercent = 100.0 * validBuckets / (size * size);
+        double filledPercent = 100.0 * filledBuckets / cells;
+        double validPercent = 100.0 * validBuckets / cells;
 
         sb.append("Filled buckets: ")
                 .append(filledBuckets)
                 .append(" / ")
-                .append(size * size)
+                .append(cells)
                 .append(String.format(" (%.0f%%)", filledPercent))
                 .append("\n");
 
         sb.append("Valid buckets (fitness>0.0): ")
                 .append(validBuckets)
                 .append(" / ")
-                .append(size * size)
+                .append(cells)
                 .append(String.format(" (%.0f%%)", validPercent))
+                .append("\n");
+
+        sb.append("Overflow pool: ").append(overflow.size()).append(" valid non-elite trees\n");
+
+        sb.append("Fitness cache hit rate: ")
+                .append(String.format("%.1f%%", 100.0 * cache.hitRate()))
+                .append(" (").append(cache.getHits()).append(" / ").append(cache.getLookups()).append(" lookups)")
                 .append("\n\n");
 
+        if (grid() != null) {
+            appendArchiveMap(sb, grid().getSize());
+        }
+
+        File infoFile = new File(baseDir, "info.txt");
+
+        try (java.io.BufferedWriter writer = new java.io.BufferedWriter(
+                new java.io.FileWriter(infoFile)
+        )) {
+            writer.write(sb.toString());
+        } catch (java.io.IOException e) {
+            throw new RuntimeException("Failed to write " + infoFile.getAbsolutePath(), e);
+        }
+    }
+
+
+    private void appendArchiveMap(StringBuilder sb, int size) {
         sb.append("Archive map:\n    ");
         for (int x = 0; x < size; x++) {
             sb.append(String.format("  %2d   ", x));
@@ -224,7 +646,7 @@ public class MapElitesArchive {
         for (int y = 0; y < size; y++) {
             sb.append(String.format("%2d ", y));
             for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
+                ArchiveRecord rec = recordAt(x, y);
                 if (rec != null) {
                     sb.append(String.format("[%.2f] ", rec.getFitness()));
                 } else {
@@ -233,49 +655,166 @@ public class MapElitesArchive {
             }
             sb.append("\n");
         }
-
-        File infoFile = new File(baseDir, "info.txt");
-
-        try (java.io.BufferedWriter writer = new java.io.BufferedWriter(
-                new java.io.FileWriter(infoFile)
-        )) {
-            writer.write(sb.toString());
-        } catch (java.io.IOException e) {
-            throw new RuntimeException("Failed to write " + infoFile.getAbsolutePath(), e);
-        }
     }
 
-
     public String serializeArchive(int generationCount) {
-        String timestampDir = nowAsDirName();
+        return serializeArchive(generationCount, new File("levels", nowAsDirName()));
+    }
 
-        File baseDir = new File("levels", timestampDir);
+    // returns the name of baseDir
+    public String serializeArchive(int generationCount, File baseDir) {
         if (!baseDir.exists() && !baseDir.mkdirs()) {
             throw new RuntimeException("Cannot create directory: " + baseDir);
         }
 
         createArchiveInfo(baseDir, generationCount);
-        for (int y = size - 1; y >= 0; y--) {
-            for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
-                if (rec != null) {
-                    File out = new File(
-                            baseDir,
-                            String.format("x_%02d_y_%02d.json", x, y)
+        for (int cell = 0; cell < cellCount(); cell++) {
+            ArchiveRecord rec = archive.get(cell);
+            if (rec != null) {
+                File out = new File(baseDir, tessellation.cellName(cell) + ".json");
+
+                try {
+                    DungeonTreeSerializer.writeToFile(rec.tree.toDungeonTree(), rec.fitness, out);
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                            "Failed to write " + out.getAbsolutePath(), e
                     );
+                }
+                if (elites != null) {
+                    serializeVariants(baseDir, cell, rec);
+                }
+            }
+        }
+        return baseDir.getName();
+    }
 
-                    try {
-                        DungeonTreeSerializer.writeToFile(rec.tree, rec.fitness, out);
-                    } catch (IOException e) {
-                        throw new RuntimeException(
-                                "Failed to write " + out.getAbsolutePath(), e
-                        );
-                    }
+    // the other elites of a cell, best first, next to the elite file: x_03_y_05_v01.json, x_03_y_05_v02.json...
+    private void serializeVariants(File baseDir, int cell, ArchiveRecord elite) {
+        long eliteHash = elite.getTree().structuralHash();
+        int variant = 0;
+        for (ArchiveRecord rec : elites[cell].records()) {
+            if (rec.getTree().structuralHash() == eliteHash) {
+                continue;
+            }
+            variant++;
+            File out = new File(baseDir, String.format("%s_v%02d.json", tessellation.cellName(cell), variant));
+            try {
+                DungeonTreeSerializer.writeToFile(rec.tree.toDungeonTree(), rec.fitness, out);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write " + out.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    // commits the trees of an archive folder written by serializeArchive with their stored fitness (see
+    // insertEvaluated), e.g. to merge the archives of several islands; returns the number inserted
+    public int mergeArchive(File baseDir) {
+        File[] files = baseDir.listFiles((dir, name) -> ELITE_FILE.matcher(name).matches());
+        if (files == null) {
+            throw new RuntimeException("Cannot read archive directory: " + baseDir);
+        }
+        Arrays.sort(files);
+        int inserted = 0;
+        for (File file : files) {
+            try {
+                JsonNode node = MAPPER.readTree(file);
+                PersistentDungeonTree tree = PersistentDungeonTree.of(DungeonTreeSerializer.fromJsonNode(node));
+                if (insertEvaluated(tree, (float) node.get("fitness").asDouble()).isInserted()) {
+                    inserted++;
                 }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + file.getAbsolutePath(), e);
             }
         }
-        return timestampDir;
+        return inserted;
     }
 
-    // todo: add functions like getEasyLevel(), getHardLevel(), etc.
+    // trees of an archive folder written by serializeArchive (elites and their variants), in file name order
+    public static List<DungeonTree> readArchive(File baseDir) {
+        File[] files = baseDir.listFiles((dir, name) -> ELITE_FILE.matcher(name).matches());
+        if (files == null) {
+            throw new RuntimeException("Cannot read archive directory: " + baseDir);
+        }
+        Arrays.sort(files);
+        List<DungeonTree> trees = new ArrayList<>(files.length);
+        for (File file : files) {
+            try {
+                trees.add(DungeonTreeSerializer.readFromFile(file));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + file.getAbsolutePath(), e);
+            }
+        }
+        return trees;
+    }
+
+    // ----------- level queries --------------
+    // descriptors are in the tessellation's own units, e.g. (difficulty, reward) for the default grid;
+    // they search every kept tree (with elitesPerCell > 1, not only the elites) through a k-d tree built
+    // on the first query after the archive changed, so queries on a finished archive take microseconds
+
+    // snapshot of the kept trees, rebuilt only if something was inserted since the last one
+    private synchronized EliteIndex index() {
+        long current = version.get();
+        if (index == null || indexVersion != current) {
+            List<ArchiveRecord> records = new ArrayList<>();
+            for (int slot = 0; slot < occupiedCount(); slot++) {
+                records.addAll(eliteRecords(occupiedCell(slot)));
+            }
+            index = new EliteIndex(records, tessellation);
+            indexVersion = current;
+        }
+        return index;
+    }
+
+    private float[] normalizedQuery(float[] descriptor) {
+        if (descriptor.length != tessellation.dimensions()) {
+            throw new IllegalArgumentException("Expected " + tessellation.dimensions() + " descriptor values, got "
+                    + descriptor.length);
+        }
+        return tessellation.normalize(descriptor);
+    }
+
+    private static List<DungeonTree> trees(List<ArchiveRecord> records) {
+        List<DungeonTree> trees = new ArrayList<>(records.size());
+        for (ArchiveRecord rec : records) {
+            trees.add(rec.getTree().toDungeonTree());
+        }
+        return trees;
+    }
+
+    // the valid tree closest to descriptor, e.g. getNearestTree(difficulty, reward); null if there is none
+    public DungeonTree getNearestTree(float... descriptor) {
+        List<DungeonTree> nearest = getNearestTrees(1, VALID, descriptor);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    // the k trees with fitness >= minFitness closest to descriptor, nearest first
+    public List<DungeonTree> getNearestTrees(int k, float minFitness, float... descriptor) {
+        return trees(index().nearest(normalizedQuery(descriptor), k, minFitness));
+    }
+
+    // trees with fitness >= minFitness whose descriptors lie between min and max (included), in no particular order
+    public List<DungeonTree> getTreesInRange(float[] min, float[] max, float minFitness) {
+        return trees(index().within(normalizedQuery(min), normalizedQuery(max), minFitness));
+    }
+
+    // the valid tree with the lowest first descriptor (difficulty in the default archives); null if there is none
+    public DungeonTree getEasyLevel() {
+        return getEasyLevel(VALID);
+    }
+
+    public DungeonTree getEasyLevel(float minFitness) {
+        ArchiveRecord rec = index().extreme(true, minFitness);
+        return rec == null ? null : rec.getTree().toDungeonTree();
+    }
+
+    // the valid tree with the highest first descriptor (difficulty in the default archives); null if there is none
+    public DungeonTree getHardLevel() {
+        return getHardLevel(VALID);
+    }
+
+    public DungeonTree getHardLevel(float minFitness) {
+        ArchiveRecord rec = index().extreme(false, minFitness);
+        return rec == null ? null : rec.getTree().toDungeonTree();
+    }
 }
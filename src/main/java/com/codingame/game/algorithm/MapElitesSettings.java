@@ -0,0 +1,121 @@
+package com.codingame.game.algorithm;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+@Getter
+@Builder(toBuilder = true)
+public class MapElitesSettings {
+
+    // upper bound; the run may stop earlier on timeBudget or convergence
+    @Builder.Default
+    private final int generations = MapElites.GENERATIONS_DEFAULT;
+
+    // wall-clock budget of the whole run, initial population included; null: none
+    @Builder.Default
+    private final Duration timeBudget = null;
+
+    // stop once valid coverage and relative QD-score both grew by less than convergenceThreshold
+    // over this many generations (see RunBudget); 0: never
+    @Builder.Default
+    private final int convergenceWindow = 0;
+
+    @Builder.Default
+    private final float convergenceThreshold = 0.01f;
+
+    // worker threads evaluating offspring
+    @Builder.Default
+    private final int threads = 1;
+
+    // 0: every offspring is inserted as soon as it is evaluated;
+    // otherwise offspring are bred, evaluated and committed in batches of this size (reproducible)
+    @Builder.Default
+    private final int batchSize = 0;
+
+    @Builder.Default
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    // archive folders (see MapElitesArchive.serializeArchive) whose elites replace the random initial population;
+    // they are re-evaluated and re-binned under this run's descriptor bounds
+    @Builder.Default
+    private final List<File> seedArchives = Collections.emptyList();
+
+    // 0: the 10 x 10 difficulty / reward grid; otherwise a CVT archive with this many niches over descriptors
+    @Builder.Default
+    private final int niches = 0;
+
+    // cells per side of the default grid archive
+    @Builder.Default
+    private final int gridSize = 10;
+
+    // coarse-to-fine: number of times a grid archive may double its resolution during the run (see MapElites.refine);
+    // e.g. gridSize 5 with 3 refinements ends on a 40 x 40 grid
+    @Builder.Default
+    private final int refinements = 0;
+
+    // generations without a new cell after which a grid archive is refined
+    @Builder.Default
+    private final int refinePatience = 2_000;
+
+    @Builder.Default
+    private final List<Descriptor> descriptors = Descriptor.ALL;
+
+    // several archives fed by the same offspring, sharing fitness components (see MapElites.runAll);
+    // empty: one archive, defined by niches and descriptors
+    @Builder.Default
+    private final List<ArchiveDefinition> archives = Collections.emptyList();
+
+    // best structurally distinct valid trees kept per cell (see MapElitesArchive.getTreesAt); 1: only the elite
+    @Builder.Default
+    private final int elitesPerCell = 1;
+
+    @Builder.Default
+    private final ParentSelection parentSelection = ParentSelection.UNIFORM;
+
+    // tune operator probabilities during the run from archive improvements (see OperatorScheduler)
+    @Builder.Default
+    private final boolean adaptiveOperators = false;
+
+    // JSON-lines metrics stream (see MetricsLog); null: no metrics
+    @Builder.Default
+    private final File metricsFile = null;
+
+    // generations between two metrics samples
+    @Builder.Default
+    private final int metricsInterval = 10_000;
+
+    // snapshot and improvement log for MapElites.resume (see Checkpoint); null: no checkpoints
+    @Builder.Default
+    private final File checkpointDir = null;
+
+    // generations between two snapshots
+    @Builder.Default
+    private final int checkpointInterval = 100_000;
+
+    // remote evaluation: EvaluationWorker processes as host:port, e.g. localhost:5701 (see RemoteEvaluator);
+    // needs batchSize > 0. Empty: offspring are evaluated by the local threads
+    @Builder.Default
+    private final List<String> evaluationWorkers = Collections.emptyList();
+
+    // island model: directory shared with the other islands (see Migration and Islands); null: no migration
+    @Builder.Default
+    private final File migrationDir = null;
+
+    // this process' island number, unique among the islands sharing migrationDir
+    @Builder.Default
+    private final int island = 0;
+
+    // generations between two migrations
+    @Builder.Default
+    private final int migrationInterval = 10_000;
+
+    // elites sent per migration
+    @Builder.Default
+    private final int migrants = 20;
+}
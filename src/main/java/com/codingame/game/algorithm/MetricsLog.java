@@ -0,0 +1,181 @@
+package com.codingame.game.algorithm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+// one line of the metrics stream; rates cover the generations since the previous sample. Evaluations are those the
+// whole run computed (cache hits excluded), the other fields describe the first archive, rates being per commit
+@AllArgsConstructor
+@Getter
+class MetricsSample {
+    long generation;
+    double elapsedSeconds;
+    long evaluations;
+    float coverage;
+    float validCoverage;
+    double qdScore; // sum of positive elite fitness
+    float maxFitness;
+    float meanFitness;
+    double evaluationsPerSecond;
+    float newCellRate;
+    float improvementRate;
+    float cacheHitRate;
+}
+
+/**
+ * Samples the archive every few generations and appends one JSON object per line to a file,
+ * so long runs can be watched (e.g. with tail -f) and compared while they are still running.
+ * The archive only counts commits and the run counts evaluations; everything else is computed here, once per sample.
+ */
+class MetricsLog implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private MapElitesArchive archive;
+    // the run's count of computed evaluations, see MapElites.evaluations
+    private final LongAdder evaluations;
+    private final int interval;
+    private final File file;
+    private final BufferedWriter writer;
+    private final long startNanos = System.nanoTime();
+    // first generation count that triggers the next sample; read without the lock by every worker
+    private volatile long nextSample = 0;
+
+    // counters at the previous sample
+    private long lastGeneration = -1;
+    private long lastNanos = startNanos;
+    private long lastEvaluations;
+    private long lastCommits;
+    private long lastNewCells;
+    private long lastImprovements;
+    private long lastCacheHits;
+    private long lastCacheLookups;
+
+    MetricsLog(MapElitesArchive archive, LongAdder evaluations, File file, int interval) {
+        this.archive = archive;
+        this.evaluations = evaluations;
+        this.interval = interval;
+        this.file = file;
+        // the initial population is not part of the first window
+        lastEvaluations = evaluations.sum();
+        lastCommits = archive.commitCount();
+        lastNewCells = archive.newCellCount();
+        lastImprovements = archive.improvementCount();
+        lastCacheHits = archive.cacheHits();
+        lastCacheLookups = archive.cacheLookups();
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Cannot create directory: " + dir);
+        }
+        try {
+            writer = new BufferedWriter(new FileWriter(file));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open " + file.getAbsolutePath(), e);
+        }
+    }
+
+    // called after generations have been completed; cheap unless a sample is due
+    void onGeneration(long generations) {
+        if (generations >= nextSample) {
+            sample(generations, false);
+        }
+    }
+
+    private synchronized void sample(long generations, boolean force) {
+        if (generations == lastGeneration || (!force && generations < nextSample)) {
+            return; // another worker took this sample
+        }
+        nextSample = (generations / interval + 1) * interval;
+
+        long now = System.nanoTime();
+        long evaluated = evaluations.sum();
+        long commits = archive.commitCount();
+        long newCells = archive.newCellCount();
+        long improvements = archive.improvementCount();
+        long cacheHits = archive.cacheHits();
+        long cacheLookups = archive.cacheLookups();
+
+        double qdScore = 0;
+        float maxFitness = 0;
+        float fitnessSum = 0;
+        int occupied = 0;
+        for (int cell = 0; cell < archive.cellCount(); cell++) {
+            float fitness = archive.eliteFitness(cell);
+            if (Float.isNaN(fitness)) {
+                continue;
+            }
+            occupied++;
+            fitnessSum += fitness;
+            maxFitness = Math.max(maxFitness, fitness);
+            if (fitness > 0) {
+                qdScore += fitness;
+            }
+        }
+
+        long windowCommits = commits - lastCommits;
+        long windowLookups = cacheLookups - lastCacheLookups;
+        double windowSeconds = (now - lastNanos) / 1e9;
+        MetricsSample sample = new MetricsSample(
+                generations,
+                (now - startNanos) / 1e9,
+                evaluated,
+                (float) archive.occupiedCount() / archive.cellCount(),
+                (float) archive.validCount() / archive.cellCount(),
+                qdScore,
+                maxFitness,
+                occupied == 0 ? 0f : fitnessSum / occupied,
+                windowSeconds == 0 ? 0 : (evaluated - lastEvaluations) / windowSeconds,
+                windowCommits == 0 ? 0f : (float) (newCells - lastNewCells) / windowCommits,
+                windowCommits == 0 ? 0f : (float) (improvements - lastImprovements) / windowCommits,
+                windowLookups == 0 ? 0f : (float) (cacheHits - lastCacheHits) / windowLookups
+        );
+
+        lastGeneration = generations;
+        lastNanos = now;
+        lastEvaluations = evaluated;
+        lastCommits = commits;
+        lastNewCells = newCells;
+        lastImprovements = improvements;
+        lastCacheHits = cacheHits;
+        lastCacheLookups = cacheLookups;
+
+        try {
+            writer.write(MAPPER.writeValueAsString(sample));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write " + file.getAbsolutePath(), e);
+        }
+    }
+
+    // the run continues on a refined archive; the commits that filled it are not part of the next window, and
+    // evaluations are not affected, as refining evaluates nothing
+    synchronized void onArchiveReplaced(MapElitesArchive archive) {
+        this.archive = archive;
+        lastCommits = archive.commitCount();
+        lastNewCells = archive.newCellCount();
+        lastImprovements = archive.improvementCount();
+        lastCacheHits = archive.cacheHits();
+        lastCacheLookups = archive.cacheLookups();
+    }
+
+    // writes the final state, even if it falls between two samples
+    void finish(long generations) {
+        sample(generations, true);
+    }
+
+    @Override
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close " + file.getAbsolutePath(), e);
+        }
+    }
+}
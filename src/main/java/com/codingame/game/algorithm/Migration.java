@@ -0,0 +1,193 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.SplitRandom;
+import com.codingame.game.tree.DungeonTreeSerializer;
+import com.codingame.game.tree.PersistentDungeonTree;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Island model: independent MapElites processes, each with its own archive, exchange elites through a shared
+ * directory (local, or mounted on every node). Every interval generations an island writes a packet of randomly
+ * chosen valid elites and absorbs the packets the other islands wrote since its last visit.
+ * Packets are written under a temporary name and renamed, so a reader never sees a partial one. Migrants keep the
+ * fitness computed on their island, so absorbing them costs no evaluation; islands share nothing else.
+ */
+class Migration {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String PREFIX = "island_";
+    // packets kept per island; older ones are deleted by their writer
+    private static final int KEEP = 4;
+    // island_<island>_<epoch>_<packet>.json; the epoch is the start time of the writing process, so a restarted
+    // island never reuses the name of a packet the others already absorbed
+    private static final String NAME = PREFIX + "%d_%013d_%06d.json";
+
+    private final File dir;
+    private final int island;
+    private final int interval;
+    private final int migrants;
+    private final Random random;
+    private volatile MapElitesArchive archive;
+    private final Checkpoint checkpoint; // null if disabled
+    private final long epoch = System.currentTimeMillis();
+    // first generation count that triggers the next migration; read without the lock by every worker
+    private volatile long nextMigration;
+    // names of the other islands' packets absorbed and still on disk
+    private final Set<String> received = new HashSet<>();
+    private final ArrayDeque<File> written = new ArrayDeque<>();
+    private int packets = 0;
+    private long sentTrees = 0;
+    private long receivedTrees = 0;
+    private long insertedTrees = 0;
+
+    // absorbed migrants are logged to checkpoint, if not null, like the elites the run finds itself
+    Migration(File dir, int island, long seed, MapElitesArchive archive, Checkpoint checkpoint, int interval,
+              int migrants, int firstGeneration) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Cannot create directory: " + dir);
+        }
+        this.dir = dir;
+        this.island = island;
+        this.interval = interval;
+        this.migrants = migrants;
+        this.archive = archive;
+        this.checkpoint = checkpoint;
+        // far from the generation and warm start streams
+        this.random = SplitRandom.stream(seed, Long.MIN_VALUE + island);
+        this.nextMigration = (long) firstGeneration + interval;
+        // packets left by an earlier process of this island are deleted as if this one had written them
+        File[] earlier = dir.listFiles((d, name) -> isOwnPacket(name));
+        if (earlier != null) {
+            Arrays.sort(earlier);
+            written.addAll(Arrays.asList(earlier));
+        }
+    }
+
+    private boolean isOwnPacket(String name) {
+        return name.startsWith(PREFIX + island + "_") && name.endsWith(".json");
+    }
+
+    // called after generations have been completed; cheap unless a migration is due
+    void onGeneration(int generations) {
+        if (generations >= nextMigration) {
+            migrate(generations);
+        }
+    }
+
+    private synchronized void migrate(int generations) {
+        if (generations < nextMigration) {
+            return; // another worker did this migration
+        }
+        nextMigration = ((long) generations / interval + 1) * interval;
+        try {
+            emigrate(generations);
+            immigrate(generations);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to migrate through " + dir.getAbsolutePath(), e);
+        }
+    }
+
+    private void emigrate(int generations) throws IOException {
+        List<Integer> valid = new ArrayList<>();
+        for (int slot = 0; slot < archive.occupiedCount(); slot++) {
+            int cell = archive.occupiedCell(slot);
+            if (archive.eliteFitness(cell) > 0) {
+                valid.add(cell);
+            }
+        }
+        Collections.shuffle(valid, random);
+
+        ObjectNode packet = MAPPER.createObjectNode();
+        packet.put("island", island);
+        packet.put("generation", generations);
+        ArrayNode trees = packet.putArray("trees");
+        for (int cell : valid.subList(0, Math.min(migrants, valid.size()))) {
+            ArchiveRecord rec = archive.record(cell);
+            trees.add(DungeonTreeSerializer.toJsonNode(rec.getTree().toDungeonTree(), rec.getFitness()));
+        }
+
+        String name = String.format(NAME, island, epoch, packets++);
+        File tmp = new File(dir, name + ".tmp");
+        File out = new File(dir, name);
+        MAPPER.writeValue(tmp, packet);
+        try {
+            Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), out.toPath());
+        }
+        sentTrees += trees.size();
+
+        written.addLast(out);
+        while (written.size() > KEEP) {
+            Files.deleteIfExists(written.removeFirst().toPath());
+        }
+    }
+
+    // packets of the other islands not absorbed yet, in name order
+    private void immigrate(int generations) throws IOException {
+        File[] packets = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(".json")
+                && !isOwnPacket(name));
+        if (packets == null) {
+            throw new IOException("Cannot list " + dir.getAbsolutePath());
+        }
+        Arrays.sort(packets);
+        // forget the packets deleted by their writers, so received stays as small as the directory
+        Set<String> listed = new HashSet<>();
+        for (File file : packets) {
+            listed.add(file.getName());
+        }
+        received.retainAll(listed);
+        for (File file : packets) {
+            if (received.contains(file.getName())) {
+                continue;
+            }
+            JsonNode packet;
+            try {
+                packet = MAPPER.readTree(file);
+            } catch (NoSuchFileException | java.io.FileNotFoundException e) {
+                continue; // deleted by its writer in the meantime; a newer packet follows
+            }
+            received.add(file.getName());
+            for (JsonNode node : packet.get("trees")) {
+                PersistentDungeonTree tree = PersistentDungeonTree.of(DungeonTreeSerializer.fromJsonNode(node));
+                receivedTrees++;
+                Evaluation evaluation = archive.evaluated(tree, (float) node.get("fitness").asDouble());
+                Insertion insertion = archive.commit(evaluation);
+                if (insertion.isInserted()) {
+                    insertedTrees++;
+                }
+                if (checkpoint != null && insertion.isKept()) {
+                    // logged under the last generation completed, as the offspring of that generation are
+                    checkpoint.onInsertion(generations - 1, 0, evaluation.getCell(), tree, evaluation.getFitness());
+                }
+            }
+        }
+    }
+
+    // the run continues on a refined archive
+    void onArchiveReplaced(MapElitesArchive archive) {
+        this.archive = archive;
+    }
+
+    synchronized String summary() {
+        return "Island " + island + ": sent " + sentTrees + " elites, received " + receivedTrees + ", inserted "
+                + insertedTrees;
+    }
+}
@@ -0,0 +1,27 @@
+package com.codingame.game.algorithm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// variation operators of MapElites, grouped by the decision that picks them
+public enum Operator {
+    MUTATION,
+    CROSSOVER,
+    CHANGE_ROOM_TYPE,
+    ADD_CHILD,
+    REMOVE_CHILD,
+    SWAP_ROOM_TYPES;
+
+    // one decision point with its operators and their default probabilities
+    @AllArgsConstructor
+    @Getter
+    public enum Context {
+        VARIATION(new Operator[]{MUTATION, CROSSOVER}, new float[]{0.4f, 0.6f}),
+        LEAF(new Operator[]{CHANGE_ROOM_TYPE, ADD_CHILD}, new float[]{0.5f, 0.5f}),
+        START_OR_EXIT(new Operator[]{SWAP_ROOM_TYPES, ADD_CHILD, REMOVE_CHILD}, new float[]{0.33f, 0.33f, 0.34f}),
+        INNER(new Operator[]{CHANGE_ROOM_TYPE, ADD_CHILD, REMOVE_CHILD}, new float[]{0.35f, 0.35f, 0.3f});
+
+        private final Operator[] operators;
+        private final float[] defaultProbabilities;
+    }
+}
@@ -0,0 +1,141 @@
+package com.codingame.game.algorithm;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses variation operators and keeps per-operator statistics.
+ * When adaptive, every decision point is a multi-armed bandit using probability matching:
+ * each operator's reward estimate is an exponential moving average of "offspring entered the archive",
+ * and its probability is proportional to that estimate, never below a minimum.
+ * Otherwise the default probabilities are used throughout the run.
+ * Lock-free: every offspring goes through choose and reward, on every worker thread.
+ */
+class OperatorScheduler {
+    private static final float LEARNING_RATE = 0.01f;
+    private static final float MIN_PROBABILITY = 0.05f;
+
+    private final boolean adaptive;
+    private final Bandit[] bandits = new Bandit[Operator.Context.values().length];
+
+    private static final class Bandit {
+        final Operator.Context context;
+        final float[] defaultProbabilities;
+        // float bits of each reward estimate, updated with compare-and-set
+        final AtomicIntegerArray rewardEstimates;
+        final LongAdder[] uses;
+        final LongAdder[] newCells;
+        final LongAdder[] improvements;
+
+        Bandit(Operator.Context context) {
+            this.context = context;
+            int arms = context.getOperators().length;
+            defaultProbabilities = context.getDefaultProbabilities().clone();
+            rewardEstimates = new AtomicIntegerArray(arms); // all 0f
+            uses = counters(arms);
+            newCells = counters(arms);
+            improvements = counters(arms);
+        }
+
+        private static LongAdder[] counters(int arms) {
+            LongAdder[] counters = new LongAdder[arms];
+            for (int arm = 0; arm < arms; arm++) {
+                counters[arm] = new LongAdder();
+            }
+            return counters;
+        }
+
+        int arms() {
+            return defaultProbabilities.length;
+        }
+
+        float rewardEstimate(int arm) {
+            return Float.intBitsToFloat(rewardEstimates.get(arm));
+        }
+
+        float totalEstimate() {
+            float total = 0f;
+            for (int arm = 0; arm < arms(); arm++) {
+                total += rewardEstimate(arm);
+            }
+            return total;
+        }
+
+        // probability matching on the current estimates; the defaults until some operator was rewarded
+        float probability(int arm, float totalEstimate) {
+            if (totalEstimate <= 0f) {
+                return defaultProbabilities[arm];
+            }
+            return MIN_PROBABILITY + (1 - arms() * MIN_PROBABILITY) * rewardEstimate(arm) / totalEstimate;
+        }
+
+        void updateEstimate(int arm, float reward) {
+            while (true) {
+                int bits = rewardEstimates.get(arm);
+                float estimate = Float.intBitsToFloat(bits);
+                float updated = estimate + LEARNING_RATE * (reward - estimate);
+                if (rewardEstimates.compareAndSet(arm, bits, Float.floatToIntBits(updated))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    OperatorScheduler(boolean adaptive) {
+        this.adaptive = adaptive;
+        for (Operator.Context context : Operator.Context.values()) {
+            bandits[context.ordinal()] = new Bandit(context);
+        }
+    }
+
+    // index of the chosen operator within context.getOperators()
+    int choose(Operator.Context context, Random random) {
+        Bandit bandit = bandits[context.ordinal()];
+        float rand = random.nextFloat();
+        // not adaptive: the defaults, as probability() gives them when nothing was rewarded
+        float totalEstimate = adaptive ? bandit.totalEstimate() : 0f;
+        float cumulative = 0f;
+        int last = bandit.arms() - 1;
+        for (int arm = 0; arm < last; arm++) {
+            cumulative += bandit.probability(arm, totalEstimate);
+            if (rand < cumulative) {
+                return arm;
+            }
+        }
+        return last;
+    }
+
+    void reward(Operator.Context context, int arm, Insertion insertion) {
+        Bandit bandit = bandits[context.ordinal()];
+        bandit.uses[arm].increment();
+        if (insertion == Insertion.NEW_CELL) {
+            bandit.newCells[arm].increment();
+        } else if (insertion == Insertion.IMPROVED) {
+            bandit.improvements[arm].increment();
+        }
+        if (adaptive) {
+            bandit.updateEstimate(arm, insertion.isImprovement() ? 1f : 0f);
+        }
+    }
+
+    // per operator: current probability, uses, new cells and improvements per use
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Bandit bandit : bandits) {
+            sb.append(bandit.context).append(":\n");
+            Operator[] operators = bandit.context.getOperators();
+            float totalEstimate = adaptive ? bandit.totalEstimate() : 0f;
+            for (int arm = 0; arm < operators.length; arm++) {
+                long uses = bandit.uses[arm].sum();
+                sb.append(String.format("  %-16s p=%.2f uses=%d new cells=%.2f%% improvements=%.2f%%%n",
+                        operators[arm],
+                        bandit.probability(arm, totalEstimate),
+                        uses,
+                        uses == 0 ? 0.0 : 100.0 * bandit.newCells[arm].sum() / uses,
+                        uses == 0 ? 0.0 : 100.0 * bandit.improvements[arm].sum() / uses));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package com.codingame.game.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Valid trees that are not elites (displaced by a better tree, beaten by the elite of their cell, or outside
+ * the bounds after a rebin), kept so the archive can be re-binned without evolving them again.
+ * Only trees whose fitness is known get here: offspring pruned against their cell's elite (Fitness.PRUNED, their
+ * best case already below it) are left out, as evaluating them fully would undo the pruning. The pool is therefore
+ * biased towards trees that came close to their elite, and a rebin cannot fill cells from the clear losers.
+ * Ties and trees structurally equal to their elite are left out too, since they would only fill the pool with
+ * copies of the current elites.
+ * A lock-free ring buffer: when it is full, the oldest entries are overwritten.
+ */
+class OverflowPool {
+    private final AtomicReferenceArray<ArchiveRecord> records;
+    private final AtomicLong added = new AtomicLong();
+
+    OverflowPool(int capacity) {
+        records = new AtomicReferenceArray<>(capacity);
+    }
+
+    void add(ArchiveRecord record) {
+        records.set((int) (added.getAndIncrement() % records.length()), record);
+    }
+
+    int size() {
+        return (int) Math.min(added.get(), records.length());
+    }
+
+    // oldest first
+    List<ArchiveRecord> records() {
+        long count = added.get();
+        int capacity = records.length();
+        int size = (int) Math.min(count, capacity);
+        int oldest = count > capacity ? (int) (count % capacity) : 0;
+        List<ArchiveRecord> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ArchiveRecord record = records.get((oldest + i) % capacity);
+            if (record != null) {
+                out.add(record);
+            }
+        }
+        return out;
+    }
+}
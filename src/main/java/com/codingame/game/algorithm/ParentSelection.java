@@ -0,0 +1,15 @@
+package com.codingame.game.algorithm;
+
+// how MapElites picks parents among the filled archive cells
+public enum ParentSelection {
+    // every filled cell equally likely
+    UNIFORM,
+    // cells whose offspring recently made it into the archive are preferred
+    CURIOSITY,
+    // cells that were filled or improved recently are preferred, with exponential decay
+    RECENT_IMPROVEMENT,
+    // likelihood proportional to the elite's fitness
+    FITNESS_PROPORTIONAL,
+    // cells with more empty neighbouring cells are preferred, to push the frontier outwards
+    SPARSE_NEIGHBOURHOOD
+}
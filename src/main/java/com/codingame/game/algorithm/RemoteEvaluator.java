@@ -0,0 +1,173 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.PersistentDungeonTree;
+import com.codingame.game.tree.DungeonTreeSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator side of remote evaluation: sends trees to EvaluationWorker processes in batches and completes a
+ * future with the fitness components of each tree.
+ * <ul>
+ *     <li>one thread per worker connection takes up to TREES_PER_REQUEST pending trees, sends them and waits for
+ *     the answer, so a faster worker simply takes more batches;</li>
+ *     <li>back-pressure: at most MAX_PENDING trees may wait or be in flight, further submits block;</li>
+ *     <li>a worker that fails, disconnects or does not answer within ANSWER_TIMEOUT_MS is dropped and its batch
+ *     goes back to the front of the queue; once no worker is left, the trees are evaluated locally.</li>
+ * </ul>
+ * Results do not depend on which worker (or the coordinator) evaluated a tree, see EvaluationWorker.
+ */
+class RemoteEvaluator implements AutoCloseable {
+    private static final int TREES_PER_REQUEST = 16;
+    private static final int MAX_PENDING = 1024;
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int ANSWER_TIMEOUT_MS = 60_000;
+
+    private static final class Task {
+        final PersistentDungeonTree tree;
+        final long randomState;
+        final float layoutBound;
+        final CompletableFuture<float[]> result = new CompletableFuture<>();
+
+        Task(PersistentDungeonTree tree, long randomState, float layoutBound) {
+            this.tree = tree;
+            this.randomState = randomState;
+            this.layoutBound = layoutBound;
+        }
+    }
+
+    private final LinkedBlockingDeque<Task> queue = new LinkedBlockingDeque<>();
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+    private final AtomicInteger alive = new AtomicInteger();
+    private final List<Thread> connections = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    // workers as host:port
+    RemoteEvaluator(List<String> workers) {
+        alive.set(workers.size());
+        for (String worker : workers) {
+            Thread connection = new Thread(() -> connect(worker), "remote-evaluation-" + worker);
+            connection.setDaemon(true);
+            connections.add(connection);
+            connection.start();
+        }
+    }
+
+    // components {quality, structuralControl, layout (NaN if skipped)} as EvaluationWorker.evaluate computes them
+    CompletableFuture<float[]> submit(PersistentDungeonTree tree, long randomState, float layoutBound) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for remote evaluation", e);
+        }
+        Task task = new Task(tree, randomState, layoutBound);
+        task.result.whenComplete((components, failure) -> pending.release());
+        queue.addLast(task);
+        return task.result;
+    }
+
+    private void connect(String worker) {
+        int colon = worker.lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(worker.substring(0, colon),
+                Integer.parseInt(worker.substring(colon + 1)));
+        List<Task> batch = new ArrayList<>(TREES_PER_REQUEST);
+        try (Socket socket = new Socket()) {
+            socket.connect(address, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(ANSWER_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (nextBatch(batch)) {
+                out.writeInt(batch.size());
+                for (Task task : batch) {
+                    out.writeLong(task.randomState);
+                    out.writeFloat(task.layoutBound);
+                    DungeonTreeSerializer.writeCompact(task.tree, out);
+                }
+                out.flush();
+                for (Task task : batch) {
+                    float[] components = {in.readFloat(), in.readFloat(), in.readFloat()};
+                    task.result.complete(components);
+                }
+                batch.clear();
+            }
+            out.writeInt(EvaluationWorker.END);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            // trees answered before the failure keep their result, the others go back to the front of the queue
+            int requeued = 0;
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                if (!batch.get(i).result.isDone()) {
+                    queue.addFirst(batch.get(i));
+                    requeued++;
+                }
+            }
+            System.out.println("Evaluation worker " + worker + " dropped (" + e + "), " + requeued
+                    + " trees queued again");
+            if (alive.decrementAndGet() == 0) {
+                System.out.println("No evaluation worker left, evaluating locally");
+                evaluateLocally();
+            }
+        }
+    }
+
+    // blocks until at least one task is queued; false once the evaluator is closed
+    private boolean nextBatch(List<Task> batch) {
+        try {
+            Task first = null;
+            while (first == null) {
+                if (closed) {
+                    return false;
+                }
+                first = queue.pollFirst(100, TimeUnit.MILLISECONDS);
+            }
+            batch.add(first);
+            queue.drainTo(batch, TREES_PER_REQUEST - 1);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void evaluateLocally() {
+        List<Task> batch = new ArrayList<>(TREES_PER_REQUEST);
+        while (nextBatch(batch)) {
+            for (Task task : batch) {
+                try {
+                    task.result.complete(EvaluationWorker.evaluate(task.tree, task.randomState, task.layoutBound));
+                } catch (RuntimeException e) {
+                    task.result.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread connection : connections) {
+            try {
+                connection.join(ANSWER_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.codingame.game.algorithm;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+
+/**
+ * Decides when a run stops before its generation limit: once a wall-clock budget is spent, or once the archive
+ * has converged, i.e. valid coverage and QD-score both grew by less than a threshold over the last window of
+ * generations. The window slides in steps of a quarter, since each step needs a pass over every cell.
+ */
+class RunBudget {
+    private static final int STEPS_PER_WINDOW = 4;
+
+    private final long startNanos;
+    private final long budgetNanos; // Long.MAX_VALUE: no time limit
+    private final int window; // 0: never converges
+    private final float threshold;
+    private MapElitesArchive archive;
+    // valid coverage and QD-score at the last steps, oldest first
+    private final ArrayDeque<double[]> history = new ArrayDeque<>();
+    // first generation count that triggers the next convergence step; read without the lock by every worker
+    private volatile long nextStep;
+    // null while the run goes on
+    private volatile String stopReason = null;
+
+    // timeBudget may be null; the clock starts at startNanos
+    RunBudget(MapElitesArchive archive, long startNanos, Duration timeBudget, int window, float threshold,
+              int firstGeneration) {
+        this.archive = archive;
+        this.startNanos = startNanos;
+        this.budgetNanos = timeBudget == null ? Long.MAX_VALUE : timeBudget.toNanos();
+        this.window = window;
+        this.threshold = threshold;
+        this.nextStep = window > 0 ? firstGeneration : Long.MAX_VALUE;
+    }
+
+    // called after generations have been completed; cheap unless a convergence step is due
+    boolean shouldStop(int generations) {
+        if (stopReason != null) {
+            return true;
+        }
+        if (budgetNanos != Long.MAX_VALUE && System.nanoTime() - startNanos >= budgetNanos) {
+            stopReason = "time budget spent";
+            return true;
+        }
+        if (generations >= nextStep) {
+            step(generations);
+        }
+        return stopReason != null;
+    }
+
+    private synchronized void step(int generations) {
+        if (generations < nextStep) {
+            return; // another worker took this step
+        }
+        nextStep = (long) generations + Math.max(1, window / STEPS_PER_WINDOW);
+
+        double qdScore = 0;
+        for (int cell = 0; cell < archive.cellCount(); cell++) {
+            float fitness = archive.eliteFitness(cell);
+            if (fitness > 0) {
+                qdScore += fitness;
+            }
+        }
+        history.addLast(new double[]{(double) archive.validCount() / archive.cellCount(), qdScore});
+        if (history.size() > STEPS_PER_WINDOW + 1) {
+            history.removeFirst();
+        }
+        if (history.size() <= STEPS_PER_WINDOW) {
+            return; // less than a window since the start (or the last refinement)
+        }
+        double[] oldest = history.getFirst();
+        double coverageGain = history.getLast()[0] - oldest[0];
+        double qdGain = oldest[1] == 0 ? Double.POSITIVE_INFINITY : (history.getLast()[1] - oldest[1]) / oldest[1];
+        if (coverageGain < threshold && qdGain < threshold) {
+            stopReason = String.format("converged (coverage +%.2f%%, QD-score +%.2f%% over %d generations)",
+                    100 * coverageGain, 100 * qdGain, window);
+        }
+    }
+
+    // the run continues on a refined archive, whose coverage is not comparable with the coarser one
+    synchronized void onArchiveReplaced(MapElitesArchive archive) {
+        this.archive = archive;
+        history.clear();
+    }
+
+    // null if the run was not stopped early
+    String getStopReason() {
+        return stopReason;
+    }
+
+    double elapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+}
@@ -0,0 +1,33 @@
+package com.codingame.game.algorithm;
+
+import com.codingame.game.tree.TreeStatistics;
+
+/**
+ * Partition of the descriptor space into the cells of a {@link MapElitesArchive}.
+ * Cells are numbered 0 .. cellCount() - 1; implementations must be immutable, so any thread may use them.
+ */
+public interface Tessellation {
+    int cellCount();
+
+    // number of descriptor values
+    int dimensions();
+
+    // descriptor values of a tree, in the tessellation's own units
+    float[] describe(TreeStatistics tree);
+
+    // -1 if the descriptor is outside the bounds of the archive
+    int cellOf(float[] descriptor);
+
+    // descriptor values scaled so the archive bounds map to [0, 1] on every axis (values outside stay outside)
+    float[] normalize(float[] descriptor);
+
+    // cells next to cell, used by neighbourhood-based parent selection; symmetric: b is a neighbour of a
+    // exactly when a is a neighbour of b
+    int[] neighbours(int cell);
+
+    // file name of a cell's elite, without extension
+    String cellName(int cell);
+
+    // header lines of the archive's info.txt
+    String info();
+}
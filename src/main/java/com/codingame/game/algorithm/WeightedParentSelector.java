@@ -0,0 +1,133 @@
+package com.codingame.game.algorithm;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Non-uniform parent selection over the filled cells of an archive.
+ * Each filled cell gets a slot in a Fenwick tree, so both weight updates and draws are O(log n).
+ * All methods are synchronized; a draw is cheap compared to the evaluation it feeds.
+ */
+class WeightedParentSelector {
+    private static final double MIN_WEIGHT = 1e-9;
+    // curiosity score: reward for an inserted offspring, penalty otherwise (Cully & Demiris)
+    private static final float CURIOSITY_INITIAL = 1.0f;
+    private static final float CURIOSITY_REWARD = 1.0f;
+    private static final float CURIOSITY_PENALTY = 0.5f;
+    private static final float CURIOSITY_FLOOR = 0.1f;
+    private static final float FITNESS_FLOOR = 0.01f;
+    // recency weights are 2^((t - base) / half life); rebased before the exponent overflows
+    private static final double MAX_EXPONENT = 500;
+
+    private final ParentSelection strategy;
+    private final Tessellation tessellation;
+    private final FenwickTree weights;
+    private final int[] cellOfSlot;
+    private final int[] slotOfCell;
+    private int slots = 0;
+
+    private final float[] curiosity;
+    // best fitness reported for each cell, i.e. the fitness of its elite whatever order reports arrive in
+    private final float[] eliteFitness;
+    private final long[] lastImprovement;
+    private final double halfLife;
+    private long improvements = 0;
+    private long recencyBase = 0;
+
+    WeightedParentSelector(ParentSelection strategy, Tessellation tessellation) {
+        this.strategy = strategy;
+        this.tessellation = tessellation;
+        int cells = tessellation.cellCount();
+        weights = new FenwickTree(cells);
+        cellOfSlot = new int[cells];
+        slotOfCell = new int[cells];
+        Arrays.fill(slotOfCell, -1);
+        curiosity = new float[cells];
+        eliteFitness = new float[cells];
+        lastImprovement = new long[cells];
+        halfLife = cells;
+    }
+
+    // -1 if no cell is filled yet
+    synchronized int select(Random random) {
+        if (slots == 0) {
+            return -1;
+        }
+        double total = weights.total();
+        if (total <= 0) {
+            return cellOfSlot[random.nextInt(slots)];
+        }
+        return cellOfSlot[weights.find(random.nextDouble() * total, slots)];
+    }
+
+    // a new elite entered cell, filling it or replacing a worse one. Workers report after their compare-and-set,
+    // so reports of one cell may arrive out of order (the improvement of a new cell before the new cell itself):
+    // the first report of a cell registers it, whichever it is
+    synchronized void onInserted(int cell, float fitness) {
+        if (slotOfCell[cell] < 0) {
+            register(cell, fitness);
+        }
+        eliteFitness[cell] = Math.max(eliteFitness[cell], fitness);
+        lastImprovement[cell] = improvements++;
+        if (strategy == ParentSelection.RECENT_IMPROVEMENT && lastImprovement[cell] - recencyBase > MAX_EXPONENT * halfLife) {
+            rebaseRecency();
+        }
+        weights.set(slotOfCell[cell], weight(cell));
+    }
+
+    private void register(int cell, float fitness) {
+        int slot = slots++;
+        cellOfSlot[slot] = cell;
+        slotOfCell[cell] = slot;
+        curiosity[cell] = CURIOSITY_INITIAL;
+        eliteFitness[cell] = fitness;
+
+        if (strategy == ParentSelection.SPARSE_NEIGHBOURHOOD) {
+            // the new cell is no longer empty space for its filled neighbours
+            for (int neighbour : tessellation.neighbours(cell)) {
+                int neighbourSlot = slotOfCell[neighbour];
+                if (neighbourSlot >= 0) {
+                    weights.set(neighbourSlot, weights.get(neighbourSlot) - 1);
+                }
+            }
+        }
+    }
+
+    synchronized void onOffspring(int parentCell, boolean inserted) {
+        if (strategy != ParentSelection.CURIOSITY || parentCell < 0) {
+            return;
+        }
+        float score = curiosity[parentCell] + (inserted ? CURIOSITY_REWARD : -CURIOSITY_PENALTY);
+        curiosity[parentCell] = Math.max(score, CURIOSITY_FLOOR);
+        weights.set(slotOfCell[parentCell], curiosity[parentCell]);
+    }
+
+    private double weight(int cell) {
+        switch (strategy) {
+            case CURIOSITY:
+                return curiosity[cell];
+            case RECENT_IMPROVEMENT:
+                return Math.max(Math.pow(2, (lastImprovement[cell] - recencyBase) / halfLife), MIN_WEIGHT);
+            case FITNESS_PROPORTIONAL:
+                return Math.max(eliteFitness[cell], FITNESS_FLOOR);
+            case SPARSE_NEIGHBOURHOOD:
+                int empty = 0;
+                for (int neighbour : tessellation.neighbours(cell)) {
+                    if (slotOfCell[neighbour] < 0) empty++;
+                }
+                return 1 + empty;
+            default:
+                return 1;
+        }
+    }
+
+    // moves the recency reference to now, so the newest weights are ~1 again; O(n), but only every
+    // MAX_EXPONENT half lives
+    private void rebaseRecency() {
+        recencyBase = improvements;
+        for (int slot = 0; slot < slots; slot++) {
+            int cell = cellOfSlot[slot];
+            weights.set(slot, Math.max(Math.pow(2, (lastImprovement[cell] - recencyBase) / halfLife), MIN_WEIGHT));
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.codingame.game.game_objects;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
 @AllArgsConstructor
 @Getter
 public enum EnemyType {
@@ -18,6 +21,10 @@ public enum EnemyType {
     private static final float GOLEM_PROBABILITY = 0.2f;
 
     public static EnemyType getRandom() {
-        return Math.random() < GOLEM_PROBABILITY ? GOLEM : FIRE;
+        return getRandom(ThreadLocalRandom.current());
+    }
+
+    public static EnemyType getRandom(Random random) {
+        return random.nextFloat() < GOLEM_PROBABILITY ? GOLEM : FIRE;
     }
 }
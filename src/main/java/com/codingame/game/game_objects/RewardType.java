@@ -3,6 +3,8 @@ package com.codingame.game.game_objects;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Function;
 
 @AllArgsConstructor
@@ -19,7 +21,11 @@ public enum RewardType {
     private static final float POTION_PROBABILITY = 0.1f;
 
     public static RewardType getRandom() {
-        return Math.random() < POTION_PROBABILITY ? HEALTH_POTION : COIN;
+        return getRandom(ThreadLocalRandom.current());
+    }
+
+    public static RewardType getRandom(Random random) {
+        return random.nextFloat() < POTION_PROBABILITY ? HEALTH_POTION : COIN;
     }
 }
 
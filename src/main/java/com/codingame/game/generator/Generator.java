@@ -3,6 +3,8 @@ package com.codingame.game.generator;
 import com.codingame.game.Constants;
 import com.codingame.game.move.Coord;
 
+import java.util.Random;
+
 public abstract class Generator {
     protected static int[][] initialGridWalls(int rows, int columns) {
         int[][] grid = new int[rows][columns];
@@ -14,21 +16,21 @@ public abstract class Generator {
         return grid;
     }
 
-    protected static int randomRow(int rows) {
-        return (int) (Math.random() * rows);
+    protected static int randomRow(int rows, Random random) {
+        return random.nextInt(rows);
     }
 
-    protected static int randomColumn(int columns) {
-        return (int) (Math.random() * columns);
+    protected static int randomColumn(int columns, Random random) {
+        return random.nextInt(columns);
     }
 
-    protected static Coord randomCoord(int rows, int columns) {
-        return new Coord(randomColumn(columns), randomRow(rows));
+    protected static Coord randomCoord(int rows, int columns, Random random) {
+        return new Coord(randomColumn(columns, random), randomRow(rows, random));
     }
 
-    protected static Coord randomCoordInRoom(int min_x, int max_x, int min_y, int max_y) {
-        int x = min_x + (int) (Math.random() * (max_x - min_x));
-        int y = min_y + (int) (Math.random() * (max_y - min_y));
+    protected static Coord randomCoordInRoom(int min_x, int max_x, int min_y, int max_y, Random random) {
+        int x = min_x + (int) (random.nextDouble() * (max_x - min_x));
+        int y = min_y + (int) (random.nextDouble() * (max_y - min_y));
         return new Coord(x, y);
     }
 }
@@ -11,6 +11,7 @@ import com.codingame.game.tree.NodeTypes;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This class generates a dungeon layout from a given layout or dungeon tree.
@@ -31,6 +32,7 @@ public class GridGenerator extends Generator {
     private final int partitionHeight; // Height of each partition in the grid
 
     private final boolean irregularRooms; // Flag to determine if rooms should be irregular
+    private final Random random; // Source of all randomness of this generator
 
     /**
      * Constructor for GeneratorFromLayout.
@@ -38,7 +40,18 @@ public class GridGenerator extends Generator {
      * @param layout The layout of the dungeon as a 2D array of LayoutField objects.
      */
     public GridGenerator(LayoutField[][] layout) {
+        this(layout, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Constructor for GeneratorFromLayout with an explicit random source, e.g. a seeded one.
+     *
+     * @param layout The layout of the dungeon as a 2D array of LayoutField objects.
+     * @param random The random source used for room shapes, corridors and objects placement.
+     */
+    public GridGenerator(LayoutField[][] layout, Random random) {
         this.layout = layout;
+        this.random = random;
         trimmedH = layout.length;
         trimmedW = layout[0].length;
         partitionWidth = Constants.COLUMNS / trimmedW;
@@ -71,7 +84,7 @@ public class GridGenerator extends Generator {
 
     private List<Coord> sampleCoords(Set<Coord> source, int count) {
         List<Coord> list = new ArrayList<>(source);
-        Collections.shuffle(list);
+        Collections.shuffle(list, random);
         return list.subList(0, Math.min(count, list.size()));
     }
 
@@ -93,13 +106,13 @@ public class GridGenerator extends Generator {
 
         int i = 0;
         while (i < enemyCount) {
-            EnemyType type = EnemyType.getRandom();
+            EnemyType type = EnemyType.getRandom(random);
             enemies.put(picks.get(i), type);
             i += type.getSeverity();
         }
 
         for (int j = enemyCount; j < enemyCount + rewardCount; j++) {
-            rewards.put(picks.get(j), RewardType.getRandom());
+            rewards.put(picks.get(j), RewardType.getRandom(random));
         }
     }
 
@@ -127,7 +140,7 @@ public class GridGenerator extends Generator {
         if (x < startX || x >= endX || y < startY || y >= endY) return;
         if (grid[y][x] == Constants.ROOM) return;
         float pp_multiplier = 0.9f;
-        if (Math.random() < pp) {
+        if (random.nextDouble() < pp) {
             grid[y][x] = Constants.ROOM;
             roomFlooding(x + 1, y, startX, startY, endX, endY, pp * pp_multiplier);
             roomFlooding(x - 1, y, startX, startY, endX, endY, pp * pp_multiplier);
@@ -164,7 +177,7 @@ public class GridGenerator extends Generator {
 
         if (Direction.isVertical(direction)) {
             // move x to the side -> x1
-            int x1 = x + (int)(Math.random() * (partitionWidth - 2) * 0.5f) * (Math.random() > 0.5 ? 1 : -1);
+            int x1 = x + (int)(random.nextDouble() * (partitionWidth - 2) * 0.5f) * (random.nextDouble() > 0.5 ? 1 : -1);
             while (x != x1) {
                 if (grid[y][x] != Constants.ROOM) {
                     grid[y][x] = Constants.CORRIDOR;
@@ -189,7 +202,7 @@ public class GridGenerator extends Generator {
                 x += (int) Math.signum(parent_x - x);
             }
         } else {
-            int y1 = y + (int)(Math.random() * (partitionHeight - 2) * 0.5f) * (Math.random() > 0.5 ? 1 : -1);
+            int y1 = y + (int)(random.nextDouble() * (partitionHeight - 2) * 0.5f) * (random.nextDouble() > 0.5 ? 1 : -1);
             while (y != y1) {
                 if (grid[y][x] == Constants.WALL) {
                     grid[y][x] = Constants.CORRIDOR;
@@ -275,10 +288,21 @@ public class GridGenerator extends Generator {
      * @return A GridDefinition object representing the generated dungeon.
      */
     public static GridDefinition generate(DungeonTree tree, int maxRetries) {
-        LayoutField[][] layout = LayoutGenerator.generateLayout(tree, maxRetries);
+        return generate(tree, maxRetries, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Generates a dungeon grid from a DungeonTree using the given random source.
+     *
+     * @param tree   The DungeonTree to generate the dungeon from.
+     * @param random The random source, e.g. a seeded one for reproducible dungeons.
+     * @return A GridDefinition object representing the generated dungeon.
+     */
+    public static GridDefinition generate(DungeonTree tree, int maxRetries, Random random) {
+        LayoutField[][] layout = LayoutGenerator.generateLayout(tree, maxRetries, random);
         LayoutGenerator.printLayout(layout);
 
-        GridGenerator generator = new GridGenerator(layout);
+        GridGenerator generator = new GridGenerator(layout, random);
 
         generator.placeRooms();
         generator.placeCorridors();
@@ -311,4 +335,32 @@ public class GridGenerator extends Generator {
             throw new RuntimeException("Failed to generate from file: " + filename, e);
         }
     }
+
+    /**
+     * Generates a dungeon grid from one of the trees of an archive cell: its elite or one of the variants
+     * written next to it when the archive kept several elites per cell, chosen uniformly.
+     *
+     * @param folder The name of the archive folder.
+     * @param x      The x coordinate of the cell.
+     * @param y      The y coordinate of the cell.
+     * @param random The random source choosing the tree and generating the dungeon.
+     * @return A GridDefinition object representing the generated dungeon.
+     * @throws RuntimeException If the cell has no tree or the dungeon cannot be generated.
+     */
+    public static GridDefinition generate(String folder, int x, int y, int maxRetries, Random random) {
+        String cell = "x_" + String.format("%02d", x) + "_y_" + String.format("%02d", y);
+        File[] files = new File("levels/" + folder).listFiles(
+                (dir, name) -> name.equals(cell + ".json") || name.matches(cell + "_v\\d+\\.json"));
+        if (files == null || files.length == 0) {
+            throw new RuntimeException("No tree for " + cell + " in levels/" + folder);
+        }
+        Arrays.sort(files); // listing order is not specified, the choice must only depend on random
+        File file = files[random.nextInt(files.length)];
+        try {
+            DungeonTree tree = DungeonTreeSerializer.readFromFile(file);
+            return generate(tree, maxRetries, random);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to generate from file: " + file.getPath(), e);
+        }
+    }
 }
@@ -4,17 +4,17 @@ import com.codingame.game.Constants;
 import com.codingame.game.move.Coord;
 import com.codingame.game.move.Direction;
 import com.codingame.game.tree.DungeonTree;
+import com.codingame.game.tree.RoomTree;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class LayoutGenerator {
 
-    private static final Random RANDOM = new Random();
-
-    static boolean generateLayout(DungeonTree node, LayoutField[][] grid, int x, int y, Direction directionFromParent) {
+    static <T extends RoomTree<T>> boolean generateLayout(T node, LayoutField[][] grid, int x, int y, Direction directionFromParent, Random random) {
         // if spot is not free, fail
         if (grid[y][x] != null) {
             return false;
@@ -22,16 +22,16 @@ public class LayoutGenerator {
         // Place the current node if the spot is free
         grid[y][x] = new LayoutField(node.getType(), directionFromParent);
 
-        List<DungeonTree> children = new ArrayList<>(node.getChildren());
-        Collections.shuffle(children, RANDOM);  // Shuffle for diversity
-        return tryPlaceChildren(grid, x, y, children, 0);
+        List<T> children = new ArrayList<>(node.getChildren());
+        Collections.shuffle(children, random);  // Shuffle for diversity
+        return tryPlaceChildren(grid, x, y, children, 0, random);
     }
 
     /**
      * Exhaustive backtracking with shuffled directions: Try all directions for each child in shuffled order.
      * childIndex: Current child to place (0 to children.size()-1).
      */
-    private static boolean tryPlaceChildren(LayoutField[][] grid, int parentX, int parentY, List<DungeonTree> children, int childIndex) {
+    private static <T extends RoomTree<T>> boolean tryPlaceChildren(LayoutField[][] grid, int parentX, int parentY, List<T> children, int childIndex, Random random) {
         int width = grid[0].length;
         int height = grid.length;
 
@@ -39,8 +39,8 @@ public class LayoutGenerator {
             return true;  // All children placed
         }
 
-        DungeonTree child = children.get(childIndex);
-        List<Direction> directions = Direction.shuffledDirections();
+        T child = children.get(childIndex);
+        List<Direction> directions = Direction.shuffledDirections(random);
 
         for (Direction dir : directions) {
             int nx = parentX + dir.getDx();
@@ -48,11 +48,11 @@ public class LayoutGenerator {
 
             if (nx >= 0 && nx < width && ny >= 0 && ny < height && grid[ny][nx] == null) {
                 // Try placing this child and recurse to next child
-                if (generateLayout(child, grid, nx, ny, dir.opposite())) {
+                if (generateLayout(child, grid, nx, ny, dir.opposite(), random)) {
                     // Record position for backtracking
                     grid[parentY][parentX].placedChildrenPositions.add(new Coord(nx, ny));
                     // Recurse to next child
-                    if (tryPlaceChildren(grid, parentX, parentY, children, childIndex + 1)) {
+                    if (tryPlaceChildren(grid, parentX, parentY, children, childIndex + 1, random)) {
                         return true;
                     }
                     // Backtrack this child if subtree failed
@@ -116,12 +116,16 @@ public class LayoutGenerator {
     }
 
     public static LayoutField[][] generateLayout(DungeonTree root, int max_retries) throws IllegalArgumentException {
+        return generateLayout(root, max_retries, ThreadLocalRandom.current());
+    }
+
+    public static <T extends RoomTree<T>> LayoutField[][] generateLayout(T root, int max_retries, Random random) throws IllegalArgumentException {
         int centerX = Constants.MAX_LAYOUT_WIDTH / 2;
         int centerY = Constants.MAX_LAYOUT_HEIGHT / 2;
 
         for (int attempt = 0; attempt < max_retries; attempt++) {
             LayoutField[][] grid = new LayoutField[Constants.MAX_LAYOUT_HEIGHT][Constants.MAX_LAYOUT_WIDTH];
-            if (generateLayout(root, grid, centerX, centerY, null)) {
+            if (generateLayout(root, grid, centerX, centerY, null, random)) {
                 return trim(grid);  // Success with this shuffle and root position
             }
             // If all root positions failed, retry with new shuffles (next attempt)
@@ -6,6 +6,8 @@ import lombok.Getter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Getter
 @AllArgsConstructor
@@ -37,14 +39,22 @@ public enum Direction implements Move {
     }
 
     public static Direction randomDirection() {
+        return randomDirection(ThreadLocalRandom.current());
+    }
+
+    public static Direction randomDirection(Random random) {
         Direction[] directions = values();
-        int index = (int) (Math.random() * directions.length);
+        int index = random.nextInt(directions.length);
         return directions[index];
     }
 
     public static List<Direction> shuffledDirections() {
+        return shuffledDirections(ThreadLocalRandom.current());
+    }
+
+    public static List<Direction> shuffledDirections(Random random) {
         List<Direction> directions = new ArrayList<>(Arrays.asList(values()));
-        java.util.Collections.shuffle(directions);
+        java.util.Collections.shuffle(directions, random);
         return directions;
     }
 
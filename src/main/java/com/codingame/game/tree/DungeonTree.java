@@ -1,16 +1,17 @@
 package com.codingame.game.tree;
 
+import com.codingame.game.SplitRandom;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.Setter;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 @Getter
-public class DungeonTree {
+public class DungeonTree implements TreeStatistics, RoomTree<DungeonTree> {
 
     // data
-    @Setter
     private NodeTypes.Base type;
     //children
     private DungeonTree firstChild = null;
@@ -19,18 +20,52 @@ public class DungeonTree {
     // parent
     private DungeonTree parent = null;
 
+    // subtree statistics, kept up to date on every edit (see refreshStatisticsToRoot)
+    @Getter(AccessLevel.NONE)
+    private int subtreeSize;
+    @Getter(AccessLevel.NONE)
+    private int subtreeLeaves;
+    @Getter(AccessLevel.NONE)
+    private double subtreeDifficulty;
+    @Getter(AccessLevel.NONE)
+    private double subtreeReward;
+    @Getter(AccessLevel.NONE)
+    private final int[] subtreeTypeCounts = new int[NodeTypes.KINDS];
+    @Getter(AccessLevel.NONE)
+    private int subtreeGrandchildrenPenalty; // sum of |grandchildren - 4| over the subtree
+    @Getter(AccessLevel.NONE)
+    private int subtreeMaxGrandchildren;
+    @Getter(AccessLevel.NONE)
+    private int subtreeHeight; // edges down to the deepest leaf
+    // last Start / Exit of the subtree in pre-order, null if it has none
+    @Getter(AccessLevel.NONE)
+    private DungeonTree subtreeStart;
+    @Getter(AccessLevel.NONE)
+    private DungeonTree subtreeExit;
+
     // --------------- constructors ---------------
     public DungeonTree(NodeTypes.Base type) {
         this.type = type;
+        refreshStatistics();
     }
 
     public DungeonTree(DungeonTree parent) {
-        this.type = NodeTypes.getRandomRoom();
+        this(parent, ThreadLocalRandom.current());
+    }
+
+    public DungeonTree(DungeonTree parent, Random random) {
+        this.type = NodeTypes.getRandomRoom(random);
         this.parent = parent;
+        refreshStatistics();
     }
 
     public DungeonTree() {
-        this.type = NodeTypes.getRandomRoom();
+        this(ThreadLocalRandom.current());
+    }
+
+    public DungeonTree(Random random) {
+        this.type = NodeTypes.getRandomRoom(random);
+        refreshStatistics();
     }
 
     // --------------- generation ---------------
@@ -39,15 +74,24 @@ public class DungeonTree {
             float branchingFactor,
             float branchingFactorMultiplier
     ) {
-        generateSubtree(0, maxDepth, branchingFactor, branchingFactorMultiplier);
+        generateRandomTree(maxDepth, branchingFactor, branchingFactorMultiplier, ThreadLocalRandom.current());
+    }
+
+    public void generateRandomTree(
+            int maxDepth,
+            float branchingFactor,
+            float branchingFactorMultiplier,
+            Random random
+    ) {
+        generateSubtree(0, maxDepth, branchingFactor, branchingFactorMultiplier, random);
 
         // Find the two most distant leaves for Start and Exit
         DungeonTree[] mostDistantLeaves = findMostDistantLeaves();
         if (mostDistantLeaves[0] != null) {
-            mostDistantLeaves[0].type = new NodeTypes.Start();
+            mostDistantLeaves[0].setType(new NodeTypes.Start());
         }
         if (mostDistantLeaves[1] != null) {
-            mostDistantLeaves[1].type = new NodeTypes.Exit();
+            mostDistantLeaves[1].setType(new NodeTypes.Exit());
         }
     }
 
@@ -56,56 +100,120 @@ public class DungeonTree {
             int currentDepth,
             int maxDepth,
             float branchingFactor,
-            float branchingFactorMultiplier
+            float branchingFactorMultiplier,
+            Random random
     ) {
-        type = NodeTypes.getRandomRoom();
+        type = NodeTypes.getRandomRoom(random);
 
         if (currentDepth >= maxDepth) {
+            refreshStatistics();
             return;
         }
 
-        double randomValue = Math.random();
-        firstChild = (randomValue < branchingFactor ? new DungeonTree(this) : null);
-        secondChild = (randomValue < branchingFactor * 0.75 ? new DungeonTree(this) : null);
-        thirdChild = (randomValue < branchingFactor * 0.5 ? new DungeonTree(this) : null);
+        double randomValue = random.nextDouble();
+        firstChild = (randomValue < branchingFactor ? new DungeonTree(this, random) : null);
+        secondChild = (randomValue < branchingFactor * 0.75 ? new DungeonTree(this, random) : null);
+        thirdChild = (randomValue < branchingFactor * 0.5 ? new DungeonTree(this, random) : null);
         float newBranchingFactor = branchingFactor * branchingFactorMultiplier;
         if (firstChild != null) {
-            firstChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier);
+            firstChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier, random);
         }
         if (secondChild != null) {
-            secondChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier);
+            secondChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier, random);
         }
         if (thirdChild != null) {
-            thirdChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier);
+            thirdChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier, random);
         }
+        // children are complete at this point
+        refreshStatistics();
     }
 
-    private DungeonTree[] findMostDistantLeaves() {
-        List<DungeonTree> leaves = new ArrayList<>();
-        collectLeaves(leaves);
+    // "no leaf" for distances to the farthest leaf; stays negative after adding the depth of any tree
+    private static final int NO_LEAF = Integer.MIN_VALUE / 2;
+
+    // state of the two passes of findMostDistantLeaves
+    private static final class LeafSearch {
+        DungeonTree first = null;
+        int diameter = -1;
+        boolean passedFirst = false;
+    }
 
-        if (leaves.size() < 2) {
+    private DungeonTree[] findMostDistantLeaves() {
+        if (countLeaves() < 2) {
+            List<DungeonTree> leaves = new ArrayList<>();
+            collectLeaves(leaves);
             // If only one leaf or none, return it as both start as root
             DungeonTree leaf = leaves.isEmpty() ? this : leaves.get(0);
             return new DungeonTree[]{this, leaf};
         }
 
-        DungeonTree leaf1 = null;
-        DungeonTree leaf2 = null;
-        int maxDistance = -1;
+        // the pair an all-pairs search in leaf order would pick, in two linear passes: the first leaf that ends a
+        // longest leaf-to-leaf path, then the first leaf after it at that distance
+        LeafSearch search = new LeafSearch();
+        findFarthestLeaf(NO_LEAF, search);
 
-        for (int i = 0; i < leaves.size(); i++) {
-            for (int j = i + 1; j < leaves.size(); j++) {
-                int distance = getTreeDistance(leaves.get(i), leaves.get(j));
-                if (distance > maxDistance) {
-                    maxDistance = distance;
-                    leaf1 = leaves.get(i);
-                    leaf2 = leaves.get(j);
-                }
+        DungeonTree[] path = new DungeonTree[search.first.depthBelow(this) + 1];
+        DungeonTree node = search.first;
+        for (int i = path.length - 1; i >= 0; i--) {
+            path[i] = node;
+            node = node.parent;
+        }
+        DungeonTree second = findLeafAtDistance(path.length - 1, path, 0, search);
+        return new DungeonTree[]{search.first, second};
+    }
+
+    // pass 1: outside is the distance from this node to the farthest leaf outside its subtree, NO_LEAF if none.
+    // For a leaf that is the distance to the farthest other leaf
+    private void findFarthestLeaf(int outside, LeafSearch search) {
+        if (isLeaf()) {
+            if (outside > search.diameter) {
+                search.diameter = outside;
+                search.first = this;
             }
+            return;
         }
+        int first = firstChild != null ? firstChild.subtreeHeight + 1 : NO_LEAF;
+        int second = secondChild != null ? secondChild.subtreeHeight + 1 : NO_LEAF;
+        int third = thirdChild != null ? thirdChild.subtreeHeight + 1 : NO_LEAF;
+        if (firstChild != null) firstChild.findFarthestLeaf(1 + max(outside, second, third), search);
+        if (secondChild != null) secondChild.findFarthestLeaf(1 + max(outside, first, third), search);
+        if (thirdChild != null) thirdChild.findFarthestLeaf(1 + max(outside, first, second), search);
+    }
 
-        return new DungeonTree[]{leaf1, leaf2};
+    private static int max(int a, int b, int c) {
+        return Math.max(a, Math.max(b, c));
+    }
+
+    // pass 2: distance is this node's distance from search.first, path[d] is the ancestor of search.first at depth d
+    private DungeonTree findLeafAtDistance(int distance, DungeonTree[] path, int depth, LeafSearch search) {
+        if (isLeaf()) {
+            if (this == search.first) {
+                search.passedFirst = true;
+            } else if (search.passedFirst && distance == search.diameter) {
+                return this;
+            }
+            return null;
+        }
+        // off the path, every step goes away from search.first
+        DungeonTree towardsFirst = depth + 1 < path.length && path[depth] == this ? path[depth + 1] : null;
+        DungeonTree found = null;
+        if (firstChild != null) {
+            found = firstChild.findLeafAtDistance(distance, towardsFirst, path, depth, search);
+        }
+        if (found == null && secondChild != null) {
+            found = secondChild.findLeafAtDistance(distance, towardsFirst, path, depth, search);
+        }
+        if (found == null && thirdChild != null) {
+            found = thirdChild.findLeafAtDistance(distance, towardsFirst, path, depth, search);
+        }
+        return found;
+    }
+
+    // this node is a child of a node at depth and distance parentDistance
+    private DungeonTree findLeafAtDistance(int parentDistance, DungeonTree towardsFirst, DungeonTree[] path,
+                                           int parentDepth, LeafSearch search) {
+        int distance = this == towardsFirst ? parentDistance - 1 : parentDistance + 1;
+        return findLeafAtDistance(distance, path, parentDepth + 1, search);
     }
 
     public void collectLeaves(List<DungeonTree> leaves) {
@@ -118,30 +226,47 @@ public class DungeonTree {
         if (thirdChild != null) thirdChild.collectLeaves(leaves);
     }
 
+    // edges between two nodes, Integer.MAX_VALUE if they are in different trees; O(depth), no allocation
     public int getTreeDistance(DungeonTree a, DungeonTree b) {
         if (a == b) return 0;
 
-        Map<DungeonTree, Integer> distFromA = new HashMap<>();
-        int dist = 0;
-        DungeonTree cur = a;
-
-        while (cur != null) {
-            distFromA.put(cur, dist++);
-            cur = cur.getParent();
+        DungeonTree ancestor = lowestCommonAncestor(a, b);
+        if (ancestor == null) {
+            return Integer.MAX_VALUE;
         }
+        return a.depthBelow(ancestor) + b.depthBelow(ancestor);
+    }
 
-        cur = b;
-        dist = 0;
+    // deepest node that has both a and b in its subtree, null if they are in different trees.
+    // Lifts the deeper node to the other's depth, then both together; O(depth), no allocation
+    public static DungeonTree lowestCommonAncestor(DungeonTree a, DungeonTree b) {
+        int depthA = a.depth();
+        int depthB = b.depth();
+        for (; depthA > depthB; depthA--) a = a.parent;
+        for (; depthB > depthA; depthB--) b = b.parent;
+        while (a != b) {
+            a = a.parent;
+            b = b.parent;
+        }
+        return a;
+    }
 
-        while (cur != null) {
-            if (distFromA.containsKey(cur)) {
-                return dist + distFromA.get(cur);
-            }
-            dist++;
-            cur = cur.getParent();
+    // edges up to the root
+    public int depth() {
+        int depth = 0;
+        for (DungeonTree node = parent; node != null; node = node.parent) {
+            depth++;
         }
+        return depth;
+    }
 
-        return Integer.MAX_VALUE;
+    // edges up to ancestor, which must be this node or one of its ancestors
+    private int depthBelow(DungeonTree ancestor) {
+        int depth = 0;
+        for (DungeonTree node = this; node != ancestor; node = node.parent) {
+            depth++;
+        }
+        return depth;
     }
 
     private boolean findPath(DungeonTree current, DungeonTree target, List<DungeonTree> path) {
@@ -159,7 +284,99 @@ public class DungeonTree {
         return false;
     }
 
+    // --------------- statistics ---------------
+    private int childCount() {
+        return (firstChild != null ? 1 : 0) + (secondChild != null ? 1 : 0) + (thirdChild != null ? 1 : 0);
+    }
+
+    // returns the number of children of child, i.e. this node's grandchildren below it
+    private int addChildStatistics(DungeonTree child) {
+        subtreeSize += child.subtreeSize;
+        subtreeLeaves += child.subtreeLeaves;
+        subtreeDifficulty += child.subtreeDifficulty;
+        subtreeReward += child.subtreeReward;
+        for (int kind = 0; kind < NodeTypes.KINDS; kind++) {
+            subtreeTypeCounts[kind] += child.subtreeTypeCounts[kind];
+        }
+        subtreeGrandchildrenPenalty += child.subtreeGrandchildrenPenalty;
+        subtreeMaxGrandchildren = Math.max(subtreeMaxGrandchildren, child.subtreeMaxGrandchildren);
+        subtreeHeight = Math.max(subtreeHeight, child.subtreeHeight + 1);
+        return child.childCount();
+    }
+
+    // in pre-order the children come after this node, each one after the previous one
+    private void refreshStartAndExit() {
+        subtreeStart = type instanceof NodeTypes.Start ? this : null;
+        subtreeExit = type instanceof NodeTypes.Exit ? this : null;
+        if (firstChild != null) takeStartAndExit(firstChild);
+        if (secondChild != null) takeStartAndExit(secondChild);
+        if (thirdChild != null) takeStartAndExit(thirdChild);
+    }
+
+    private void takeStartAndExit(DungeonTree child) {
+        if (child.subtreeStart != null) subtreeStart = child.subtreeStart;
+        if (child.subtreeExit != null) subtreeExit = child.subtreeExit;
+    }
+
+    // recomputes this node's statistics from its own type and its children's statistics
+    private void refreshStatistics() {
+        subtreeSize = 1;
+        subtreeLeaves = isLeaf() ? 1 : 0;
+        subtreeDifficulty = type.getDifficulty();
+        subtreeReward = type.getReward();
+        Arrays.fill(subtreeTypeCounts, 0);
+        subtreeTypeCounts[type.getKind()] = 1;
+        subtreeGrandchildrenPenalty = 0;
+        subtreeMaxGrandchildren = 0;
+        subtreeHeight = 0;
+
+        int grandchildren = 0;
+        if (firstChild != null) grandchildren += addChildStatistics(firstChild);
+        if (secondChild != null) grandchildren += addChildStatistics(secondChild);
+        if (thirdChild != null) grandchildren += addChildStatistics(thirdChild);
+        subtreeGrandchildrenPenalty += Math.abs(grandchildren - 4);
+        subtreeMaxGrandchildren = Math.max(subtreeMaxGrandchildren, grandchildren);
+        refreshStartAndExit();
+    }
+
+    // an edit only changes the statistics of the edited node and its ancestors: O(depth)
+    private void refreshStatisticsToRoot() {
+        for (DungeonTree node = this; node != null; node = node.parent) {
+            node.refreshStatistics();
+        }
+    }
+
+    @Override
+    public float averageDifficulty() {
+        return (float) (subtreeDifficulty / subtreeSize);
+    }
+
+    @Override
+    public float averageReward() {
+        return (float) (subtreeReward / subtreeSize);
+    }
+
+    @Override
+    public int countOfKind(int kind) {
+        return subtreeTypeCounts[kind];
+    }
+
+    @Override
+    public int grandchildrenPenalty() {
+        return subtreeGrandchildrenPenalty;
+    }
+
+    @Override
+    public int maxGrandchildren() {
+        return subtreeMaxGrandchildren;
+    }
+
     // --------------- API ---------------
+    public void setType(NodeTypes.Base type) {
+        this.type = type;
+        refreshStatisticsToRoot();
+    }
+
     public boolean isLeaf() {
         // checking firstChild should be enough, but better safe than sorry
         return firstChild == null && secondChild == null && thirdChild == null;
@@ -182,6 +399,7 @@ public class DungeonTree {
         if (firstChild != null) {
             firstChild.parent = this;
         }
+        refreshStatisticsToRoot();
     }
 
     public void setSecondChild(DungeonTree newChild) {
@@ -189,6 +407,7 @@ public class DungeonTree {
         if (secondChild != null) {
             secondChild.parent = this;
         }
+        refreshStatisticsToRoot();
     }
 
     public void setThirdChild(DungeonTree newChild) {
@@ -196,10 +415,13 @@ public class DungeonTree {
         if (thirdChild != null) {
             thirdChild.parent = this;
         }
+        refreshStatisticsToRoot();
     }
 
+    // linked set keeps slot order, so iteration does not depend on identity hash codes (which differ per thread)
+    @Override
     public HashSet<DungeonTree> getChildren() {
-        HashSet<DungeonTree> children = new HashSet<>();
+        HashSet<DungeonTree> children = new LinkedHashSet<>();
         if (firstChild != null) children.add(firstChild);
         if (secondChild != null) children.add(secondChild);
         if (thirdChild != null) children.add(thirdChild);
@@ -207,7 +429,7 @@ public class DungeonTree {
     }
 
     public HashSet<DungeonTree> getGrandchildren() {
-        HashSet<DungeonTree> grandchildren = new HashSet<>();
+        HashSet<DungeonTree> grandchildren = new LinkedHashSet<>();
         if (firstChild != null) {
             grandchildren.addAll(firstChild.getChildren());
         }
@@ -248,15 +470,20 @@ public class DungeonTree {
             System.out.println("Cannot remove - no child at index " + childIndex);
         } else {
             removed.parent = null;
+            refreshStatisticsToRoot();
         }
         return removed;
     }
 
     public DungeonTree removeRandomChild() {
+        return removeRandomChild(ThreadLocalRandom.current());
+    }
+
+    public DungeonTree removeRandomChild(Random random) {
         HashSet<DungeonTree> children = getChildren();
         if (children.isEmpty()) return null;
 
-        int indexToRemove = (int) (Math.random() * children.size());
+        int indexToRemove = random.nextInt(children.size());
         DungeonTree childToRemove = new ArrayList<>(children).get(indexToRemove);
 
         if (childToRemove == firstChild) {
@@ -269,10 +496,14 @@ public class DungeonTree {
     }
 
     public DungeonTree getRandomChild() {
+        return getRandomChild(ThreadLocalRandom.current());
+    }
+
+    public DungeonTree getRandomChild(Random random) {
         HashSet<DungeonTree> children = getChildren();
         if (children.isEmpty()) return null;
 
-        int indexToGet = (int) (Math.random() * children.size());
+        int indexToGet = random.nextInt(children.size());
         return new ArrayList<>(children).get(indexToGet);
     }
 
@@ -284,42 +515,100 @@ public class DungeonTree {
         if (thirdChild != null) thirdChild.collectNodes(out);
     }
 
+    /**
+     * Hash of the tree structure and room types. Children are combined with a commutative sum,
+     * so the hash does not depend on which child slot a subtree occupies.
+     */
+    public long structuralHash() {
+        long hash = type.getName().hashCode();
+        hash = hash * 31 + Float.floatToIntBits(type.getDifficulty());
+        hash = hash * 31 + Float.floatToIntBits(type.getReward());
+
+        long childrenHash = 0;
+        if (firstChild != null) childrenHash += SplitRandom.mix64(firstChild.structuralHash());
+        if (secondChild != null) childrenHash += SplitRandom.mix64(secondChild.structuralHash());
+        if (thirdChild != null) childrenHash += SplitRandom.mix64(thirdChild.structuralHash());
+
+        return SplitRandom.mix64(SplitRandom.mix64(hash) + childrenHash);
+    }
+
     public boolean isStartOrExit() {
         return type instanceof NodeTypes.Start || type instanceof NodeTypes.Exit;
     }
 
+    @Override
     public int countNodes() {
-        List<DungeonTree> nodes = new ArrayList<>();
-        collectNodes(nodes);
-        return nodes.size();
+        return subtreeSize;
     }
 
+    @Override
+    public int countLeaves() {
+        return subtreeLeaves;
+    }
+
+    @Override
     public boolean hasStartAndExitOnce() {
-        List<DungeonTree> nodes = new ArrayList<>();
-        collectNodes(nodes);
-        boolean hasStart = false;
-        boolean hasExit = false;
-        for (DungeonTree node : nodes) {
-            if (node.type instanceof NodeTypes.Start) {
-                if (hasStart) {
-                    return false; // more than one start
-                }
-                hasStart = true;
-            }
-            if (node.type instanceof NodeTypes.Exit) {
-                if (hasExit) {
-                    return false; // more than one exit
+        return subtreeTypeCounts[NodeTypes.START] == 1 && subtreeTypeCounts[NodeTypes.EXIT] == 1;
+    }
+
+    // the last start and exit in pre-order count
+    @Override
+    public int startToExitDistance() {
+        if (subtreeStart == null || subtreeExit == null) {
+            return -1;
+        }
+        return getTreeDistance(subtreeStart, subtreeExit);
+    }
+
+    // last Start room of this subtree in pre-order, null if there is none
+    public DungeonTree getStart() {
+        return subtreeStart;
+    }
+
+    // last Exit room of this subtree in pre-order, null if there is none
+    public DungeonTree getExit() {
+        return subtreeExit;
+    }
+
+    // edges from this node down to its deepest leaf
+    public int height() {
+        return subtreeHeight;
+    }
+
+    // the node at a pre-order index, as collectNodes would list it, 0 being this node; O(depth), no allocation
+    public DungeonTree nodeAt(int index) {
+        if (index < 0 || index >= subtreeSize) {
+            throw new IndexOutOfBoundsException("Node " + index + " of a tree of " + subtreeSize + " nodes");
+        }
+        DungeonTree node = this;
+        while (index > 0) {
+            index--; // skip the node itself
+            DungeonTree next = node.firstChild;
+            if (next == null || index >= next.subtreeSize) {
+                index -= next == null ? 0 : next.subtreeSize;
+                next = node.secondChild;
+                if (next == null || index >= next.subtreeSize) {
+                    index -= next == null ? 0 : next.subtreeSize;
+                    next = node.thirdChild;
                 }
-                hasExit = true;
             }
+            node = next;
         }
-        return hasStart && hasExit;
+        return node;
     }
 
     // --------------- copy ---------------
     private DungeonTree deepCopy(DungeonTree parent) {
         DungeonTree copy = new DungeonTree(this.type);
         copy.parent = parent;
+        copy.subtreeSize = subtreeSize;
+        copy.subtreeLeaves = subtreeLeaves;
+        copy.subtreeDifficulty = subtreeDifficulty;
+        copy.subtreeReward = subtreeReward;
+        System.arraycopy(subtreeTypeCounts, 0, copy.subtreeTypeCounts, 0, NodeTypes.KINDS);
+        copy.subtreeGrandchildrenPenalty = subtreeGrandchildrenPenalty;
+        copy.subtreeMaxGrandchildren = subtreeMaxGrandchildren;
+        copy.subtreeHeight = subtreeHeight;
         if (firstChild != null) {
             copy.firstChild = firstChild.deepCopy(copy);
         }
@@ -329,6 +618,7 @@ public class DungeonTree {
         if (thirdChild != null) {
             copy.thirdChild = thirdChild.deepCopy(copy);
         }
+        copy.refreshStartAndExit(); // must point into the copy
         return copy;
     }
 
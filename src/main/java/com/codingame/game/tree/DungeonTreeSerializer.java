@@ -1,12 +1,15 @@
 package com.codingame.game.tree;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
 import com.codingame.game.generator.LayoutField;
 import com.codingame.game.generator.LayoutGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.AllArgsConstructor;
@@ -45,6 +48,7 @@ class DungeonTreeDTO {
 
 
 public class DungeonTreeSerializer {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private static DungeonTreeDTO serialize(DungeonTree root, float fitness) {
         Map<DungeonTree, Integer> ids = new IdentityHashMap<>();
@@ -114,8 +118,7 @@ public class DungeonTreeSerializer {
         Map<Integer, DungeonTree> nodes = new HashMap<>();
 
         for (NodeDTO n : dto.getNodes()) {
-            DungeonTree treeNode = new DungeonTree();
-            treeNode.setType(NodeTypes.fromString(n.getType(), n.getDifficulty(), n.getReward()));
+            DungeonTree treeNode = new DungeonTree(NodeTypes.fromString(n.getType(), n.getDifficulty(), n.getReward()));
             nodes.put(n.getId(), treeNode);
         }
 
@@ -163,6 +166,67 @@ public class DungeonTreeSerializer {
         return deserialize(dto);
     }
 
+    // for embedding trees in larger documents, e.g. checkpoints
+    public static JsonNode toJsonNode(DungeonTree tree, float fitness) {
+        return MAPPER.valueToTree(serialize(tree, fitness));
+    }
+
+    public static DungeonTree fromJsonNode(JsonNode node) throws IOException {
+        return deserialize(MAPPER.treeToValue(node, DungeonTreeDTO.class));
+    }
+
+    // compact binary form for the wire (e.g. remote evaluation): nodes in pre-order, each as its kind, difficulty,
+    // reward and a mask of its non-empty child slots, so the tree comes back with the same slots
+    public static void writeCompact(DungeonTree tree, DataOutput out) throws IOException {
+        int slots = (tree.getFirstChild() != null ? 1 : 0)
+                | (tree.getSecondChild() != null ? 2 : 0)
+                | (tree.getThirdChild() != null ? 4 : 0);
+        out.writeByte(tree.getType().getKind());
+        out.writeFloat(tree.getType().getDifficulty());
+        out.writeFloat(tree.getType().getReward());
+        out.writeByte(slots);
+        if (tree.getFirstChild() != null) writeCompact(tree.getFirstChild(), out);
+        if (tree.getSecondChild() != null) writeCompact(tree.getSecondChild(), out);
+        if (tree.getThirdChild() != null) writeCompact(tree.getThirdChild(), out);
+    }
+
+    public static DungeonTree readCompact(DataInput in) throws IOException {
+        int kind = in.readByte();
+        float difficulty = in.readFloat();
+        float reward = in.readFloat();
+        int slots = in.readByte();
+        DungeonTree node = new DungeonTree(NodeTypes.fromKind(kind, difficulty, reward));
+        // children are complete before they are attached, so statistics are refreshed once per node
+        if ((slots & 1) != 0) node.setFirstChild(readCompact(in));
+        if ((slots & 2) != 0) node.setSecondChild(readCompact(in));
+        if ((slots & 4) != 0) node.setThirdChild(readCompact(in));
+        return node;
+    }
+
+    // same format as writeCompact(DungeonTree, DataOutput); persistent trees have no empty slots between children
+    public static void writeCompact(PersistentDungeonTree tree, DataOutput out) throws IOException {
+        out.writeByte(tree.getType().getKind());
+        out.writeFloat(tree.getType().getDifficulty());
+        out.writeFloat(tree.getType().getReward());
+        out.writeByte((1 << tree.childCount()) - 1);
+        for (int c = 0; c < tree.childCount(); c++) {
+            writeCompact(tree.getChild(c), out);
+        }
+    }
+
+    // empty slots are dropped, as PersistentDungeonTree.of(DungeonTree) drops them
+    public static PersistentDungeonTree readPersistentCompact(DataInput in) throws IOException {
+        int kind = in.readByte();
+        float difficulty = in.readFloat();
+        float reward = in.readFloat();
+        int slots = in.readByte();
+        PersistentDungeonTree[] children = new PersistentDungeonTree[Integer.bitCount(slots & 7)];
+        for (int c = 0; c < children.length; c++) {
+            children[c] = readPersistentCompact(in);
+        }
+        return PersistentDungeonTree.of(NodeTypes.fromKind(kind, difficulty, reward), children);
+    }
+
 //    ------------------- test ------------------
 public static void main(String[] args) throws Exception {
     DungeonTree original = new DungeonTree();
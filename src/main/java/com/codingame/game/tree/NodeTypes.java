@@ -3,8 +3,21 @@ package com.codingame.game.tree;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
 @Getter
 public class NodeTypes {
+    // dense ids of the room types, e.g. for per-type counters
+    public static final int EMPTY = 0;
+    public static final int START = 1;
+    public static final int EXIT = 2;
+    public static final int ENEMIES = 3;
+    public static final int TREASURE = 4;
+    public static final int ENEMY_AND_TREASURE = 5;
+    public static final int KINDS = 6;
+    // Base.getName() by kind
+    static final String[] NAMES = {"Empty", "Start", "Exit", "Enemies", "Treasure", "EnemyAndTreasure"};
 
     public static Base fromString(String type, float difficulty, float reward) {
         switch (type) {
@@ -25,16 +38,40 @@ public class NodeTypes {
         }
     }
 
+    // inverse of getKind(), e.g. for compact serialization
+    public static Base fromKind(int kind, float difficulty, float reward) {
+        switch (kind) {
+            case EMPTY:
+                return new Empty();
+            case START:
+                return new Start();
+            case EXIT:
+                return new Exit();
+            case ENEMIES:
+                return new Enemies(difficulty);
+            case TREASURE:
+                return new Treasure(reward);
+            case ENEMY_AND_TREASURE:
+                return new EnemyAndTreasure(difficulty, reward);
+            default:
+                throw new IllegalArgumentException("Unknown node kind: " + kind);
+        }
+    }
+
     public static Base getRandomRoom() {
-        double r = Math.random();
+        return getRandomRoom(ThreadLocalRandom.current());
+    }
+
+    public static Base getRandomRoom(Random random) {
+        double r = random.nextDouble();
         if (r < 0.25) {
             return new Empty();
         } else if (r < 0.5) {
-            return new Enemies((float) (Math.random()));
+            return new Enemies(random.nextFloat());
         } else if (r < 0.75) {
-            return new EnemyAndTreasure((float) (Math.random()), (float) (Math.random()));
+            return new EnemyAndTreasure(random.nextFloat(), random.nextFloat());
         } else {
-            return new Treasure((float) (Math.random()));
+            return new Treasure(random.nextFloat());
         }
     }
 
@@ -44,41 +81,42 @@ public class NodeTypes {
         float difficulty, reward;  // normalised [0,1]
         String name;
         String shortName;
+        int kind;
     }
 
     public static class Empty extends Base {
         Empty() {
-            super(0, 0, "Empty", ".");
+            super(0, 0, "Empty", ".", EMPTY);
         }
     }
 
     public static class Start extends Base {
         public Start() {
-            super(0, 0, "Start", "S");
+            super(0, 0, "Start", "S", START);
         }
     }
 
     public static class Exit extends Base {
         public Exit() {
-            super(0, 0, "Exit", "X");
+            super(0, 0, "Exit", "X", EXIT);
         }
     }
 
     public static class Enemies extends Base {
         Enemies(float difficulty) {
-            super(difficulty, 0, "Enemies", "E");
+            super(difficulty, 0, "Enemies", "E", ENEMIES);
         }
     }
 
     public static class Treasure extends Base {
         Treasure(float reward) {
-            super(0, reward, "Treasure", "T");
+            super(0, reward, "Treasure", "T", TREASURE);
         }
     }
 
     public static class EnemyAndTreasure extends Base {
         EnemyAndTreasure(float difficulty, float reward) {
-            super(difficulty, reward, "EnemyAndTreasure", "B");
+            super(difficulty, reward, "EnemyAndTreasure", "B", ENEMY_AND_TREASURE);
         }
     }
 }
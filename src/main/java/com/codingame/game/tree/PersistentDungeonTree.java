@@ -0,0 +1,330 @@
+package com.codingame.game.tree;
+
+import com.codingame.game.SplitRandom;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * An immutable DungeonTree: every edit returns a new root that copies only the path from the root to the edited
+ * node and shares all other subtrees with the original (path copying). An offspring built from a parent therefore
+ * costs O(depth) nodes instead of a deep copy, and trees derived from each other share their common subtrees.
+ * <p>
+ * Nodes have no parent pointer, since a shared subtree has many parents. They are addressed by their index in
+ * pre-order, as in DungeonTree.collectNodes. Statistics and the structural hash of each
+ * subtree are computed once, when its node is built. Immutable, so trees can be shared between threads.
+ */
+public final class PersistentDungeonTree implements TreeStatistics, RoomTree<PersistentDungeonTree> {
+    private static final PersistentDungeonTree[] NO_CHILDREN = new PersistentDungeonTree[0];
+    private static final int MAX_CHILDREN = 3;
+
+    private final NodeTypes.Base type;
+    private final PersistentDungeonTree[] children; // in slot order, never modified
+
+    // subtree statistics
+    private final int size;
+    private final int leaves;
+    private final double totalDifficulty;
+    private final double totalReward;
+    private final int[] typeCounts = new int[NodeTypes.KINDS];
+    private final int grandchildrenPenalty; // sum of |grandchildren - 4| over the subtree
+    private final int maxGrandchildren;
+    private final long structuralHash;
+
+    private PersistentDungeonTree(NodeTypes.Base type, PersistentDungeonTree[] children) {
+        this.type = type;
+        this.children = children;
+
+        int subtreeSize = 1;
+        double difficulty = type.getDifficulty();
+        double reward = type.getReward();
+        typeCounts[type.getKind()] = 1;
+        int penalty = 0;
+        int maxGrand = 0;
+        int subtreeLeaves = children.length == 0 ? 1 : 0;
+        int grandchildren = 0;
+        long childrenHash = 0;
+        for (PersistentDungeonTree child : children) {
+            subtreeSize += child.size;
+            subtreeLeaves += child.leaves;
+            difficulty += child.totalDifficulty;
+            reward += child.totalReward;
+            for (int kind = 0; kind < NodeTypes.KINDS; kind++) {
+                typeCounts[kind] += child.typeCounts[kind];
+            }
+            penalty += child.grandchildrenPenalty;
+            maxGrand = Math.max(maxGrand, child.maxGrandchildren);
+            grandchildren += child.children.length;
+            childrenHash += SplitRandom.mix64(child.structuralHash);
+        }
+        this.size = subtreeSize;
+        this.leaves = subtreeLeaves;
+        this.totalDifficulty = difficulty;
+        this.totalReward = reward;
+        this.grandchildrenPenalty = penalty + Math.abs(grandchildren - 4);
+        this.maxGrandchildren = Math.max(maxGrand, grandchildren);
+
+        // as DungeonTree.structuralHash
+        long hash = type.getName().hashCode();
+        hash = hash * 31 + Float.floatToIntBits(type.getDifficulty());
+        hash = hash * 31 + Float.floatToIntBits(type.getReward());
+        this.structuralHash = SplitRandom.mix64(SplitRandom.mix64(hash) + childrenHash);
+    }
+
+    public static PersistentDungeonTree leaf(NodeTypes.Base type) {
+        return new PersistentDungeonTree(type, NO_CHILDREN);
+    }
+
+    // a node over complete subtrees, which are shared, not copied
+    public static PersistentDungeonTree of(NodeTypes.Base type, PersistentDungeonTree... children) {
+        if (children.length > MAX_CHILDREN) {
+            throw new IllegalArgumentException("A DungeonTree node has at most 3 children: " + children.length);
+        }
+        return new PersistentDungeonTree(type, children.length == 0 ? NO_CHILDREN : children.clone());
+    }
+
+    // --------------- conversion ---------------
+    public static PersistentDungeonTree of(DungeonTree node) {
+        PersistentDungeonTree[] children = new PersistentDungeonTree[MAX_CHILDREN];
+        int count = 0;
+        if (node.getFirstChild() != null) children[count++] = of(node.getFirstChild());
+        if (node.getSecondChild() != null) children[count++] = of(node.getSecondChild());
+        if (node.getThirdChild() != null) children[count++] = of(node.getThirdChild());
+        return new PersistentDungeonTree(node.getType(), count == 0 ? NO_CHILDREN : Arrays.copyOf(children, count));
+    }
+
+    public DungeonTree toDungeonTree() {
+        DungeonTree node = new DungeonTree(type);
+        // children are complete and this node has no parent yet, so attaching refreshes one node only
+        for (PersistentDungeonTree child : children) {
+            node.addChild(child.toDungeonTree());
+        }
+        return node;
+    }
+
+    // --------------- nodes ---------------
+    @Override
+    public NodeTypes.Base getType() {
+        return type;
+    }
+
+    public int childCount() {
+        return children.length;
+    }
+
+    public PersistentDungeonTree getChild(int index) {
+        return children[index];
+    }
+
+    @Override
+    public List<PersistentDungeonTree> getChildren() {
+        return Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    public boolean isLeaf() {
+        return children.length == 0;
+    }
+
+    public boolean isStartOrExit() {
+        return type instanceof NodeTypes.Start || type instanceof NodeTypes.Exit;
+    }
+
+    // the node at a pre-order index, 0 being this node; O(depth)
+    public PersistentDungeonTree nodeAt(int index) {
+        checkIndex(index);
+        PersistentDungeonTree node = this;
+        while (index > 0) {
+            index--; // skip the node itself
+            int c = 0;
+            while (index >= node.children[c].size) {
+                index -= node.children[c].size;
+                c++;
+            }
+            node = node.children[c];
+        }
+        return node;
+    }
+
+    // --------------- edits, each returns a new root ---------------
+    public PersistentDungeonTree withType(int index, NodeTypes.Base newType) {
+        return edit(index, node -> new PersistentDungeonTree(newType, node.children));
+    }
+
+    // child becomes the last child of the node at index and is shared, not copied; this root if the node is full
+    public PersistentDungeonTree withChild(int index, PersistentDungeonTree child) {
+        return edit(index, node -> {
+            if (node.children.length >= MAX_CHILDREN) {
+                System.out.println("Cannot add more than 3 children to a DungeonTree node.");
+                return node;
+            }
+            PersistentDungeonTree[] newChildren = Arrays.copyOf(node.children, node.children.length + 1);
+            newChildren[node.children.length] = child;
+            return new PersistentDungeonTree(node.type, newChildren);
+        });
+    }
+
+    // removes a child of the node at index as DungeonTree.removeChild does: the last child takes the freed slot
+    public PersistentDungeonTree withoutChild(int index, int childIndex) {
+        return edit(index, node -> {
+            if (childIndex >= node.children.length) {
+                System.out.println("Cannot remove - no child at index " + childIndex);
+                return node;
+            }
+            int remaining = node.children.length - 1;
+            PersistentDungeonTree[] newChildren = remaining == 0
+                    ? NO_CHILDREN
+                    : Arrays.copyOf(node.children, remaining);
+            if (childIndex < remaining) {
+                newChildren[childIndex] = node.children[remaining];
+            }
+            return new PersistentDungeonTree(node.type, newChildren);
+        });
+    }
+
+    // applies change to the node at index and copies the path above it
+    private PersistentDungeonTree edit(int index, UnaryOperator<PersistentDungeonTree> change) {
+        checkIndex(index);
+        if (index == 0) {
+            return change.apply(this);
+        }
+        index--;
+        int c = 0;
+        while (index >= children[c].size) {
+            index -= children[c].size;
+            c++;
+        }
+        PersistentDungeonTree newChild = children[c].edit(index, change);
+        if (newChild == children[c]) {
+            return this;
+        }
+        PersistentDungeonTree[] newChildren = children.clone();
+        newChildren[c] = newChild;
+        return new PersistentDungeonTree(type, newChildren);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Node " + index + " of a tree of " + size + " nodes");
+        }
+    }
+
+    // --------------- statistics ---------------
+    @Override
+    public int countNodes() {
+        return size;
+    }
+
+    @Override
+    public int countLeaves() {
+        return leaves;
+    }
+
+    @Override
+    public int countOfKind(int kind) {
+        return typeCounts[kind];
+    }
+
+    @Override
+    public float averageDifficulty() {
+        return (float) (totalDifficulty / size);
+    }
+
+    @Override
+    public float averageReward() {
+        return (float) (totalReward / size);
+    }
+
+    @Override
+    public int grandchildrenPenalty() {
+        return grandchildrenPenalty;
+    }
+
+    @Override
+    public int maxGrandchildren() {
+        return maxGrandchildren;
+    }
+
+    @Override
+    public boolean hasStartAndExitOnce() {
+        return typeCounts[NodeTypes.START] == 1 && typeCounts[NodeTypes.EXIT] == 1;
+    }
+
+    // as DungeonTree, the last start and exit in pre-order count. The type counts lead straight to them, so this
+    // walks two paths and allocates nothing
+    @Override
+    public int startToExitDistance() {
+        if (typeCounts[NodeTypes.START] == 0 || typeCounts[NodeTypes.EXIT] == 0) {
+            return -1;
+        }
+        PersistentDungeonTree common = this;
+        while (true) {
+            int startChild = common.lastChildWith(NodeTypes.START);
+            int exitChild = common.lastChildWith(NodeTypes.EXIT);
+            if (startChild < 0 || startChild != exitChild) {
+                return common.depthOfLast(NodeTypes.START) + common.depthOfLast(NodeTypes.EXIT);
+            }
+            common = common.children[startChild];
+        }
+    }
+
+    // last child whose subtree has a node of the kind; -1 if none
+    private int lastChildWith(int kind) {
+        for (int c = children.length - 1; c >= 0; c--) {
+            if (children[c].typeCounts[kind] > 0) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    // edges down to the last node of the kind in pre-order, which must be in this subtree
+    private int depthOfLast(int kind) {
+        int depth = 0;
+        PersistentDungeonTree node = this;
+        for (int c = node.lastChildWith(kind); c >= 0; c = node.lastChildWith(kind)) {
+            node = node.children[c];
+            depth++;
+        }
+        return depth;
+    }
+
+    // same value as DungeonTree.structuralHash of the same tree, computed once
+    public long structuralHash() {
+        return structuralHash;
+    }
+
+    // the equality structuralHash stands for: the same rooms with equal subtrees, in any child order
+    public boolean structurallyEquals(PersistentDungeonTree other) {
+        if (this == other) {
+            return true; // shared subtree
+        }
+        if (structuralHash != other.structuralHash || size != other.size
+                || children.length != other.children.length || !sameRoom(type, other.type)) {
+            return false;
+        }
+        // pair every child with an equal child of other not paired yet; equality is transitive, so the first
+        // match is as good as any
+        int paired = 0;
+        for (PersistentDungeonTree child : children) {
+            int match = 0;
+            while (match < other.children.length
+                    && ((paired & 1 << match) != 0 || !child.structurallyEquals(other.children[match]))) {
+                match++;
+            }
+            if (match == other.children.length) {
+                return false;
+            }
+            paired |= 1 << match;
+        }
+        return true;
+    }
+
+    // the room properties structuralHash covers
+    private static boolean sameRoom(NodeTypes.Base a, NodeTypes.Base b) {
+        return a.getName().equals(b.getName())
+                && Float.floatToIntBits(a.getDifficulty()) == Float.floatToIntBits(b.getDifficulty())
+                && Float.floatToIntBits(a.getReward()) == Float.floatToIntBits(b.getReward());
+    }
+}
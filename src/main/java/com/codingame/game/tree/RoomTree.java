@@ -0,0 +1,14 @@
+package com.codingame.game.tree;
+
+import java.util.Collection;
+
+/**
+ * The rooms of a dungeon tree as the layout generator walks them, shared by the linked DungeonTree and the
+ * immutable PersistentDungeonTree, so either can be laid out without converting it.
+ */
+public interface RoomTree<T extends RoomTree<T>> {
+    NodeTypes.Base getType();
+
+    // the non-empty child slots, in slot order
+    Collection<T> getChildren();
+}
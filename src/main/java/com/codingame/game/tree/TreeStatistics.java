@@ -0,0 +1,28 @@
+package com.codingame.game.tree;
+
+/**
+ * Whole-tree statistics the fitness needs, shared by the linked, persistent and array-backed (flat) trees,
+ * so either can be evaluated without converting it.
+ */
+public interface TreeStatistics {
+    int countNodes();
+
+    int countLeaves();
+
+    int countOfKind(int kind);
+
+    float averageDifficulty();
+
+    float averageReward();
+
+    // sum over all nodes of |number of grandchildren - 4|
+    int grandchildrenPenalty();
+
+    // largest number of grandchildren of any node
+    int maxGrandchildren();
+
+    boolean hasStartAndExitOnce();
+
+    // edges between start and exit; -1 if either is missing
+    int startToExitDistance();
+}